@@ -36,6 +36,13 @@ android {
     }
 }
 
+// Benchmarks only run when asked for: ./gradlew testDebugUnitTest -Pbenchmarks
+tasks.withType<Test>().configureEach {
+    if (!project.hasProperty("benchmarks")) {
+        exclude("**/*Benchmark.class")
+    }
+}
+
 dependencies {
 
     implementation(libs.appcompat)
@@ -49,6 +56,9 @@ dependencies {
     implementation("com.google.firebase:firebase-firestore")
     implementation("com.google.firebase:firebase-storage")
 
+    //  Background work
+    implementation("androidx.work:work-runtime:2.9.1")
+
     implementation("com.google.android.gms:play-services-auth:20.7.0")
     implementation("com.google.android.gms:play-services-safetynet:18.0.1")
 
@@ -57,6 +67,12 @@ dependencies {
     //  UI components
     implementation("de.hdodenhof:circleimageview:3.1.0")
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    implementation("com.github.bumptech.glide:recyclerview-integration:4.16.0") {
+        // Use the recyclerview version declared below
+        isTransitive = false
+    }
+    implementation("androidx.recyclerview:recyclerview:1.3.2")
+    implementation("androidx.exifinterface:exifinterface:1.3.7")
     annotationProcessor("com.github.bumptech.glide:compiler:4.16.0")
 
     implementation ("com.google.android.material:material:1.12.0")
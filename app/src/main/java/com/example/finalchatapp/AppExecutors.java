@@ -0,0 +1,70 @@
+package com.example.finalchatapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared executors so disk work never runs on the main thread
+ */
+public final class AppExecutors {
+
+    // Single thread keeps local database writes ordered
+    private static final ExecutorService DISK_IO = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-disk-io");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    // CPU-bound work such as image transcoding
+    private static final ExecutorService COMPUTE = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "chat-compute");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    // Builds list row models; a single thread keeps submitted lists in order
+    private static final ExecutorService PRESENTATION = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-presentation");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    // Parses snapshot listener results; a single thread keeps each listener's snapshots in order
+    private static final ExecutorService SNAPSHOTS = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-snapshots");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private AppExecutors() {}
+
+    public static Executor diskIO() {
+        return DISK_IO;
+    }
+
+    public static Executor compute() {
+        return COMPUTE;
+    }
+
+    public static Executor presentation() {
+        return PRESENTATION;
+    }
+
+    public static Executor snapshots() {
+        return SNAPSHOTS;
+    }
+
+    public static void runOnMain(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            MAIN_HANDLER.post(runnable);
+        }
+    }
+}
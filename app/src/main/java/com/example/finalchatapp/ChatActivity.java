@@ -4,17 +4,22 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
+import androidx.lifecycle.Lifecycle;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.work.Data;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -22,34 +27,45 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.View;
-import android.webkit.MimeTypeMap;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.bumptech.glide.Glide;
+import com.example.finalchatapp.adapters.HistoryLoadStateAdapter;
 import com.example.finalchatapp.adapters.MessageAdapter;
+import com.example.finalchatapp.data.ChatHistoryPager;
+import com.example.finalchatapp.data.ConversationBuffer;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.data.ReactionWriter;
+import com.example.finalchatapp.data.ReceiptWriter;
+import com.example.finalchatapp.data.SnapshotDispatcher;
+import com.example.finalchatapp.data.TypingIndicator;
+import com.example.finalchatapp.data.UserProfileRepository;
+import com.example.finalchatapp.media.ImageTranscoder;
 import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.models.ReadReceipt;
 import com.example.finalchatapp.models.User;
+import com.example.finalchatapp.services.ImageUploadWorker;
 import com.example.finalchatapp.services.NotificationService;
+import com.example.finalchatapp.services.OutboxWorker;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
 import java.io.IOException;
@@ -58,11 +74,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 
 import de.hdodenhof.circleimageview.CircleImageView;
@@ -70,12 +84,24 @@ import de.hdodenhof.circleimageview.CircleImageView;
 public class ChatActivity extends AppCompatActivity {
 
     private static final String TAG = "ChatActivity";
+
+    // Optional extras to open the chat scrolled to a given message, e.g. from search
+    public static final String EXTRA_MESSAGE_ID = "messageId";
+    public static final String EXTRA_MESSAGE_TIMESTAMP = "messageTimestamp";
     private static final int CAMERA_PERMISSION_REQUEST = 100;
     private static final int STORAGE_PERMISSION_REQUEST = 101;
 
+    // Start fetching the previous page when this close to the top of the list
+    private static final int HISTORY_PREFETCH_DISTANCE = 10;
+    // Image rows ahead of the visible range whose thumbnails are loaded before they scroll in
+    private static final int IMAGE_PRELOAD_COUNT = 8;
+    // Older messages beyond this are dropped from memory and paged back in from the local store
+    private static final int MAX_BUFFERED_MESSAGES = 1000;
+
     private Toolbar toolbar;
     private CircleImageView profileImage;
     private TextView usernameText;
+    private TextView typingText;
     private RecyclerView recyclerView;
     private EditText messageInput;
     private ImageButton sendButton;
@@ -91,10 +117,22 @@ public class ChatActivity extends AppCompatActivity {
     private String otherUserId;
     private User otherUser;
 
-    private List<Message> messageList;
+    private ConversationBuffer messageList;
     private MessageAdapter messageAdapter;
+    private HistoryLoadStateAdapter historyLoadStateAdapter;
+    private ConcatAdapter concatAdapter;
+    private LinearLayoutManager layoutManager;
+
+    private ChatHistoryPager historyPager;
+    private TypingIndicator typingIndicator;
 
-    private Set<String> loadedMessageIds = new HashSet<>();
+    // How far the other user has received and read this chat, while the chat is on screen
+    private ReadReceipt otherReceipt;
+    private ListenerRegistration receiptsRegistration;
+
+    // Message to scroll to once it has been loaded
+    private String pendingJumpMessageId;
+    private long pendingJumpTimestamp;
 
     // Image handling variables
     private Uri imageUri = null;
@@ -128,6 +166,9 @@ public class ChatActivity extends AppCompatActivity {
             return;
         }
 
+        pendingJumpMessageId = getIntent().getStringExtra(EXTRA_MESSAGE_ID);
+        pendingJumpTimestamp = getIntent().getLongExtra(EXTRA_MESSAGE_TIMESTAMP, 0L);
+
         // Initialize UI elements
         toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -136,16 +177,40 @@ public class ChatActivity extends AppCompatActivity {
 
         profileImage = findViewById(R.id.profile_image);
         usernameText = findViewById(R.id.username_text);
+        typingText = findViewById(R.id.typing_text);
         recyclerView = findViewById(R.id.recycler_view);
         messageInput = findViewById(R.id.message_input);
         sendButton = findViewById(R.id.send_button);
         attachButton = findViewById(R.id.attach_button);
 
         // Set up RecyclerView
-        messageList = new ArrayList<>();
+        messageList = new ConversationBuffer();
         messageAdapter = new MessageAdapter(this, messageList, currentUser.getUid());
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        recyclerView.setAdapter(messageAdapter);
+        historyLoadStateAdapter = new HistoryLoadStateAdapter();
+        concatAdapter = new ConcatAdapter(historyLoadStateAdapter, messageAdapter);
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(concatAdapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // Only page backwards when the user is scrolling up towards older messages
+                if (dy < 0 && historyPager != null && !messageList.isEmpty()
+                        && layoutManager.findFirstVisibleItemPosition() <= HISTORY_PREFETCH_DISTANCE) {
+                    historyPager.loadOlder(messageList.get(0));
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    markVisibleMessagesRead();
+                }
+            }
+        });
+
+        recyclerView.addOnScrollListener(messageAdapter.createImagePreloader(Glide.with(this),
+                historyLoadStateAdapter::getItemCount, IMAGE_PRELOAD_COUNT));
 
         // Initialize activity result launchers
         initializeActivityResultLaunchers();
@@ -160,6 +225,22 @@ public class ChatActivity extends AppCompatActivity {
 
         // Load messages
         loadMessages();
+        observeImageUploads();
+
+        // Tell the other user we're typing, throttled so keystrokes don't each become a write
+        typingIndicator = new TypingIndicator(db, chatId, currentUser.getUid(), otherUserId);
+        messageInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                typingIndicator.onInputChanged(s.length() > 0);
+            }
+        });
 
         // Set up send button
         sendButton.setOnClickListener(v -> sendMessage());
@@ -170,9 +251,6 @@ public class ChatActivity extends AppCompatActivity {
         // Set up back button
         toolbar.setNavigationOnClickListener(v -> finish());
 
-        // Clear the loaded message IDs
-        loadedMessageIds = new HashSet<>();
-
         // Clear any notifications for this chat
         if (otherUserId != null) {
             NotificationService.clearNotification(this, otherUserId);
@@ -201,42 +279,31 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void loadUserInfo() {
-        db.collection("users").document(otherUserId)
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    if (documentSnapshot.exists()) {
-                        otherUser = documentSnapshot.toObject(User.class);
-                        if (otherUser != null) {
-                            Log.d(TAG, "Successfully loaded user: " + otherUser.getUsername());
-                            usernameText.setText(otherUser.getUsername());
-
-                            // Load profile image using Glide
-                            if (otherUser.getProfileImageUrl() != null && !otherUser.getProfileImageUrl().isEmpty()) {
-                                Glide.with(this)
-                                        .load(otherUser.getProfileImageUrl())
-                                        .placeholder(R.drawable.default_profile)
-                                        .error(R.drawable.default_profile)
-                                        .into(profileImage);
-                            } else {
-                                // Use default profile image
-                                profileImage.setImageResource(R.drawable.default_profile);
-                            }
-                        } else {
-                            Log.e(TAG, "Failed to convert document to User object");
-                            Toast.makeText(ChatActivity.this, "Error parsing user data", Toast.LENGTH_SHORT).show();
-                        }
-                    } else {
-                        Log.e(TAG, "User document does not exist for ID: " + otherUserId);
-                        // Create a placeholder user if it doesn't exist
-                        createPlaceholderUser();
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading user info: " + e.getMessage(), e);
-                    Toast.makeText(ChatActivity.this, "Error loading user info: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                    // Create a placeholder user on failure
-                    createPlaceholderUser();
-                });
+        UserProfileRepository.getInstance(this).get(otherUserId, user -> {
+            if (isDestroyed()) return;
+
+            if (user != null) {
+                otherUser = user;
+                Log.d(TAG, "Successfully loaded user: " + otherUser.getUsername());
+                usernameText.setText(otherUser.getUsername());
+
+                // Load profile image using Glide
+                if (otherUser.getProfileImageUrl() != null && !otherUser.getProfileImageUrl().isEmpty()) {
+                    Glide.with(this)
+                            .load(otherUser.getProfileImageUrl())
+                            .placeholder(R.drawable.default_profile)
+                            .error(R.drawable.default_profile)
+                            .into(profileImage);
+                } else {
+                    // Use default profile image
+                    profileImage.setImageResource(R.drawable.default_profile);
+                }
+            } else {
+                Log.e(TAG, "Could not load user for ID: " + otherUserId);
+                // Create a placeholder user if it doesn't exist
+                createPlaceholderUser();
+            }
+        });
     }
 
     private void createPlaceholderUser() {
@@ -268,39 +335,248 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void loadMessages() {
-        db.collection("chats").document(chatId).collection("messages")
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener(new EventListener<QuerySnapshot>() {
+        historyPager = new ChatHistoryPager(db, MessageStore.getInstance(this), chatId, new ChatHistoryPager.Callback() {
+            @Override
+            public void onLiveChanges(@NonNull List<Message> added, @NonNull List<Message> modified,
+                                      @NonNull List<Message> removed) {
+                boolean hasNewMessages = false;
+                for (Message message : added) {
+                    // A known id is e.g. a pending message that has now reached Firestore
+                    hasNewMessages |= !messageList.containsId(message.getMessageId());
+                    messageList.upsert(applyReceipt(message));
+                    if (otherUserId.equals(message.getSenderId())) {
+                        ReceiptWriter.getInstance().markDelivered(chatId, currentUser.getUid(), message);
+                    }
+                }
+
+                for (Message message : modified) {
+                    // Modifications of evicted messages are picked up when they are paged back in
+                    if (messageList.containsId(message.getMessageId())) {
+                        messageList.upsert(applyReceipt(message));
+                    }
+                }
+
+                for (Message message : removed) {
+                    messageList.removeById(message.getMessageId());
+                }
+
+                boolean scrollToNewest = hasNewMessages;
+                messageAdapter.submitMessages(() -> {
+                    onMessagesCommitted(scrollToNewest);
+                    evictOldMessages();
+                });
+            }
+
+            @Override
+            public void onOlderMessages(@NonNull List<Message> messages, boolean reachedStart) {
+                List<Message> flagged = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    flagged.add(applyReceipt(message));
+                }
+
+                // Prepend without moving the rows the user is currently looking at
+                messageList.upsertAll(flagged);
+                messageAdapter.submitMessages(() -> onMessagesCommitted(false));
+            }
+
+            @Override
+            public void onLoadingOlderChanged(boolean loading) {
+                historyLoadStateAdapter.setLoading(loading);
+            }
+
+            @Override
+            public void onLiveWindowSynced() {
+                // A jump waiting for the server can now page back, even if the window didn't change
+                if (pendingJumpMessageId != null) {
+                    tryJumpToMessage();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                Toast.makeText(ChatActivity.this, "Error loading messages", Toast.LENGTH_SHORT).show();
+            }
+        });
+        historyPager.start();
+    }
+
+    private void onMessagesCommitted(boolean hasNewMessages) {
+        if (pendingJumpMessageId != null) {
+            tryJumpToMessage();
+        } else if (hasNewMessages) {
+            scrollToBottom();
+        }
+        markVisibleMessagesRead();
+    }
+
+    /**
+     * Mark the newest incoming message on screen as read, which covers everything before it.
+     * The writer coalesces these, so calling this on every settle costs at most one write per second.
+     */
+    private void markVisibleMessagesRead() {
+        if (!getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            return;
+        }
+
+        int offset = historyLoadStateAdapter.getItemCount();
+        int first = Math.max(0, layoutManager.findFirstVisibleItemPosition() - offset);
+        int last = Math.min(messageList.size() - 1, layoutManager.findLastVisibleItemPosition() - offset);
+        for (int i = last; i >= first; i--) {
+            Message message = messageList.get(i);
+            if (otherUserId.equals(message.getSenderId())) {
+                ReceiptWriter.getInstance().markRead(chatId, currentUser.getUid(), message);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Messages arrive from Firestore and the store unmarked; flag them before they enter the list.
+     * The pager may still be writing the delivered instances to disk, so changes go to a copy.
+     */
+    private Message applyReceipt(Message message) {
+        if (otherReceipt == null || !currentUser.getUid().equals(message.getSenderId())) {
+            return message;
+        }
+
+        boolean read = otherReceipt.isRead(message);
+        boolean delivered = otherReceipt.isDelivered(message);
+        if (read == message.isSeen() && delivered == message.isDelivered()) {
+            return message;
+        }
+        Message flagged = new Message(message);
+        flagged.setSeen(read);
+        flagged.setDelivered(delivered);
+        return flagged;
+    }
+
+    /**
+     * Reflect a new receipt of the other user on our sent messages.
+     * Positions only move forward and new messages are flagged as they arrive, so the scan stops
+     * at the first message that is already read. Returns whether any message changed.
+     */
+    private boolean applyReceipts() {
+        if (otherReceipt == null) {
+            return false;
+        }
+
+        boolean changed = false;
+        for (int i = messageList.size() - 1; i >= 0; i--) {
+            Message message = messageList.get(i);
+            if (!currentUser.getUid().equals(message.getSenderId()) || message.isPending()) {
+                continue;
+            }
+            if (message.isSeen()) {
+                break;
+            }
+
+            boolean read = otherReceipt.isRead(message);
+            boolean delivered = otherReceipt.isDelivered(message);
+            if (read != message.isSeen() || delivered != message.isDelivered()) {
+                Message updated = new Message(message);
+                updated.setSeen(read);
+                updated.setDelivered(delivered);
+                messageList.upsert(updated);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Both participants' receipts, in one listener that only runs while the chat is on screen
+    private void listenForReceipts() {
+        receiptsRegistration = SnapshotDispatcher.listen(db.collection("chats").document(chatId).collection("receipts"),
+                ChatActivity::parseReceipts,
+                new SnapshotDispatcher.Receiver<Map<String, ReadReceipt>>() {
                     @Override
-                    public void onEvent(@Nullable QuerySnapshot snapshots, @Nullable FirebaseFirestoreException error) {
-                        if (error != null) {
-                            Toast.makeText(ChatActivity.this, "Error loading messages", Toast.LENGTH_SHORT).show();
-                            return;
+                    public void onParsed(@NonNull Map<String, ReadReceipt> receipts) {
+                        for (Map.Entry<String, ReadReceipt> entry : receipts.entrySet()) {
+                            if (entry.getKey().equals(currentUser.getUid())) {
+                                // Our own positions, possibly moved on another device
+                                ReceiptWriter.getInstance().onServerReceipt(chatId, entry.getKey(), entry.getValue());
+                            } else if (entry.getKey().equals(otherUserId)) {
+                                otherReceipt = entry.getValue();
+                            }
                         }
 
-                        if (snapshots != null) {
-                            for (DocumentChange dc : snapshots.getDocumentChanges()) {
-                                if (dc.getType() == DocumentChange.Type.ADDED) {
-                                    Message message = dc.getDocument().toObject(Message.class);
-
-                                    // Only add the message if we haven't seen its ID before
-                                    if (!loadedMessageIds.contains(message.getMessageId())) {
-                                        loadedMessageIds.add(message.getMessageId());
-                                        messageList.add(message);
-                                    }
-                                }
-                            }
-                            messageAdapter.notifyDataSetChanged();
-                            scrollToBottom();
+                        if (applyReceipts()) {
+                            messageAdapter.submitMessages();
                         }
                     }
+
+                    @Override
+                    public void onError(@NonNull FirebaseFirestoreException error) {
+                        Log.e(TAG, "Receipts listener failed", error);
+                    }
                 });
     }
 
+    // Receipts by user id
+    @WorkerThread
+    private static Map<String, ReadReceipt> parseReceipts(@NonNull QuerySnapshot snapshots) {
+        Map<String, ReadReceipt> receipts = new HashMap<>();
+        for (DocumentSnapshot doc : snapshots.getDocuments()) {
+            ReadReceipt receipt = doc.toObject(ReadReceipt.class);
+            if (receipt != null) {
+                receipts.put(doc.getId(), receipt);
+            }
+        }
+        return receipts;
+    }
+
+    /**
+     * Scroll to the requested message, paging back through history until it is loaded
+     */
+    private void tryJumpToMessage() {
+        if (pendingJumpMessageId == null || messageList.isEmpty()) return;
+
+        int index = messageList.indexOfId(pendingJumpMessageId);
+        if (index >= 0) {
+            pendingJumpMessageId = null;
+            layoutManager.scrollToPositionWithOffset(historyLoadStateAdapter.getItemCount() + index,
+                    recyclerView.getHeight() / 3);
+            return;
+        }
+
+        // Until the server confirms the newest messages, the target may simply not have arrived yet
+        if (!historyPager.isLiveWindowSynced()) return;
+
+        Message oldestLoaded = messageList.get(0);
+        if (historyPager.hasReachedStart() || oldestLoaded.getTimestamp() < pendingJumpTimestamp) {
+            // Everything around the message's time is loaded and it isn't there, so it was deleted
+            pendingJumpMessageId = null;
+            Toast.makeText(this, "Message is no longer available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        historyPager.loadOlder(oldestLoaded);
+    }
+
+    /**
+     * Keep memory bounded in long chats by dropping the oldest messages, but only ones well above the
+     * first visible row so nothing on screen moves. Paging back reads them again from the local store.
+     */
+    private void evictOldMessages() {
+        int excess = messageList.size() - MAX_BUFFERED_MESSAGES;
+        if (excess <= 0 || pendingJumpMessageId != null) {
+            return;
+        }
+
+        int firstVisible = layoutManager.findFirstVisibleItemPosition() - historyLoadStateAdapter.getItemCount();
+        int evictable = Math.min(excess, firstVisible - ChatHistoryPager.PAGE_SIZE);
+        if (evictable <= 0) {
+            return;
+        }
+
+        messageList.evictOldest(evictable);
+        historyPager.onOldestEvicted();
+        messageAdapter.submitMessages();
+    }
+
     // Helper method to scroll to the bottom of the chat
     private void scrollToBottom() {
         if (messageList.size() > 0) {
-            recyclerView.scrollToPosition(messageList.size() - 1);
+            recyclerView.scrollToPosition(concatAdapter.getItemCount() - 1);
         }
     }
 
@@ -310,40 +586,36 @@ public class ChatActivity extends AppCompatActivity {
             return;
         }
 
-        // Disable send button to prevent double-sends
-        sendButton.setEnabled(false);
-
         // Create a new message
         String messageId = UUID.randomUUID().toString();
         Message message = new Message(messageId, currentUser.getUid(), otherUserId, content);
 
-        // Add to loaded IDs set to prevent duplication when Firestore listener fires
-        loadedMessageIds.add(messageId);
-
-        // Add message to list right away for immediate feedback
-        messageList.add(message);
-        messageAdapter.notifyDataSetChanged();
-        scrollToBottom();
-
         // Clear input
         messageInput.setText("");
 
-        // Save message to Firestore
-        db.collection("chats").document(chatId).collection("messages").document(messageId)
-                .set(message)
-                .addOnSuccessListener(aVoid -> {
-                    sendButton.setEnabled(true);
-                    // Update chat info in both users' chats collection
-                    updateChatInfo(message);
-                })
-                .addOnFailureListener(e -> {
-                    sendButton.setEnabled(true);
-                    // If saving fails, remove the message from the list
-                    messageList.remove(message);
-                    loadedMessageIds.remove(messageId);
-                    messageAdapter.notifyDataSetChanged();
-                    Toast.makeText(ChatActivity.this, "Failed to send message", Toast.LENGTH_SHORT).show();
-                });
+        queueMessage(message);
+    }
+
+    /**
+     * Show the message as pending right away and hand it to the outbox.
+     * The outbox stores it on disk first, so it is sent even if the network is down or the app is killed.
+     */
+    private void queueMessage(Message message) {
+        message.setPending(true);
+        showPendingMessage(message);
+
+        MessageStore messageStore = MessageStore.getInstance(this);
+        String messageChatId = chatId;
+        AppExecutors.diskIO().execute(() -> {
+            messageStore.enqueueOutgoing(messageChatId, message);
+            OutboxWorker.enqueue(getApplicationContext());
+        });
+    }
+
+    private void showPendingMessage(Message message) {
+        // Add message to list right away for immediate feedback; the listener later replaces it by id
+        messageList.upsert(message);
+        messageAdapter.submitMessages(this::scrollToBottom);
     }
 
     // Show image selection options dialog
@@ -461,121 +733,143 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
 
-    // Upload selected image to Firebase Storage
+    // Transcode the selected image in the background, then hand it to the upload queue
     private void uploadImage() {
         if (imageUri == null) {
             Toast.makeText(this, "No image selected", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Show progress
-        Toast.makeText(this, "Uploading image...", Toast.LENGTH_SHORT).show();
+        Uri sourceUri = imageUri;
+        ImageTranscoder transcoder = new ImageTranscoder(this);
+        AppExecutors.compute().execute(() -> {
+            try {
+                ImageTranscoder.Result result = transcoder.transcode(sourceUri);
+                AppExecutors.runOnMain(() -> sendImageMessage(result));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to prepare image", e);
+                AppExecutors.runOnMain(() ->
+                        Toast.makeText(ChatActivity.this, "Could not read image", Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
 
-        // Create unique filename
-        String filename = UUID.randomUUID().toString() + "." + getFileExtension(imageUri);
-
-        // Create storage reference
-        StorageReference fileRef = storageReference.child("chat_images/" + filename);
-
-        // Upload file
-        fileRef.putFile(imageUri)
-                .addOnSuccessListener(taskSnapshot -> {
-                    // Get download URL
-                    fileRef.getDownloadUrl().addOnSuccessListener(uri -> {
-                        // Create and send image message
-                        sendImageMessage(uri.toString());
-                    });
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(ChatActivity.this, "Upload failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                })
-                .addOnProgressListener(taskSnapshot -> {
-                    // Calculate progress percentage
-                    double progress = (100.0 * taskSnapshot.getBytesTransferred() / taskSnapshot.getTotalByteCount());
-                    Log.d(TAG, "Upload progress: " + progress + "%");
-                });
+    /**
+     * Show the image from the local files right away and queue its upload.
+     * The upload runs in ImageUploadWorker, which sends the message once both files are stored.
+     */
+    private void sendImageMessage(ImageTranscoder.Result result) {
+        String messageId = UUID.randomUUID().toString();
+        Message message = new Message(messageId, currentUser.getUid(), otherUserId,
+                Uri.fromFile(result.fullFile).toString(), Message.TYPE_IMAGE);
+        message.setThumbnailUrl(Uri.fromFile(result.thumbnailFile).toString());
+        message.setWidth(result.width);
+        message.setHeight(result.height);
+        message.setPlaceholderHash(result.placeholderHash);
+        message.setPending(true);
+        message.setUploadProgress(0);
+
+        showPendingMessage(message);
+
+        MessageStore messageStore = MessageStore.getInstance(this);
+        String messageChatId = chatId;
+        AppExecutors.diskIO().execute(() -> {
+            messageStore.enqueueImageUpload(messageChatId, message,
+                    result.fullFile.getAbsolutePath(), result.thumbnailFile.getAbsolutePath());
+            ImageUploadWorker.enqueue(getApplicationContext(), messageChatId, messageId);
+        });
     }
 
-    // Get file extension from URI
-    private String getFileExtension(Uri uri) {
-        ContentResolver contentResolver = getContentResolver();
-        MimeTypeMap mime = MimeTypeMap.getSingleton();
-        return mime.getExtensionFromMimeType(contentResolver.getType(uri));
+    // Reflect the progress of this chat's uploads, including ones started before the screen was opened
+    private void observeImageUploads() {
+        WorkManager.getInstance(this)
+                .getWorkInfosByTagLiveData(ImageUploadWorker.chatTag(chatId))
+                .observe(this, workInfos -> {
+                    boolean changed = false;
+                    for (WorkInfo workInfo : workInfos) {
+                        if (workInfo.getState() == WorkInfo.State.RUNNING) {
+                            Data progress = workInfo.getProgress();
+                            changed |= updateUploadProgress(progress.getString(ImageUploadWorker.KEY_MESSAGE_ID),
+                                    progress.getInt(ImageUploadWorker.KEY_PROGRESS, -1));
+                        } else if (workInfo.getState() == WorkInfo.State.SUCCEEDED) {
+                            // Uploads given up on still succeed, so the ones queued behind them carry on
+                            String messageId = workInfo.getOutputData().getString(ImageUploadWorker.KEY_DROPPED_MESSAGE_ID);
+                            Message failed = messageId != null ? messageList.getById(messageId) : null;
+                            if (failed != null && failed.isPending()) {
+                                messageList.removeById(messageId);
+                                changed = true;
+                                Toast.makeText(this, "Image upload failed", Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    }
+                    if (changed) {
+                        messageAdapter.submitMessages();
+                    }
+                });
     }
 
-    // Send image message
-    private void sendImageMessage(String imageUrl) {
-        // Create a new message
-        String messageId = UUID.randomUUID().toString();
-        Message message = new Message(messageId, currentUser.getUid(), otherUserId, imageUrl, Message.TYPE_IMAGE);
+    private boolean updateUploadProgress(String messageId, int progress) {
+        if (messageId == null || progress < 0) {
+            return false;
+        }
 
-        // Add to loaded IDs set to prevent duplication
-        loadedMessageIds.add(messageId);
+        Message current = messageList.getById(messageId);
+        if (current == null || !current.isPending() || current.getUploadProgress() == progress) {
+            return false;
+        }
 
-        // Add message to list for immediate feedback
-        messageList.add(message);
-        messageAdapter.notifyDataSetChanged();
-        scrollToBottom();
+        Message updated = new Message(current);
+        updated.setUploadProgress(progress);
+        messageList.upsert(updated);
+        return true;
+    }
 
-        // Save to Firestore
-        db.collection("chats").document(chatId).collection("messages").document(messageId)
-                .set(message)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Image message sent successfully");
-                    // Update chat info
-                    updateChatInfo(message);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Failed to send image message", e);
-                    Toast.makeText(ChatActivity.this, "Failed to send image", Toast.LENGTH_SHORT).show();
+    @Override
+    protected void onStart() {
+        super.onStart();
 
-                    // Remove from list if failed
-                    messageList.remove(message);
-                    loadedMessageIds.remove(messageId);
-                    messageAdapter.notifyDataSetChanged();
-                });
+        // Only listen for the other user typing and reading while the chat is on screen
+        if (typingIndicator != null) {
+            typingIndicator.start(typing -> typingText.setVisibility(typing ? View.VISIBLE : View.GONE));
+        }
+        if (chatId != null) {
+            listenForReceipts();
+        }
     }
 
-    // Update chat info - enhanced to handle image messages
-    private void updateChatInfo(Message message) {
-        // Create the chat info map
-        Map<String, Object> chatInfo = new HashMap<>();
-
-        // For text messages, use content. For image messages, use a placeholder text
-        String lastMessageContent = message.getType() == Message.TYPE_IMAGE ?
-                "📷 Image" : message.getContent();
+    @Override
+    protected void onResume() {
+        super.onResume();
 
-        chatInfo.put("lastMessageContent", lastMessageContent);
-        chatInfo.put("lastMessageTimestamp", message.getTimestamp());
-        chatInfo.put("lastMessageSenderId", message.getSenderId());
+        if (chatId != null) {
+            // Once resumed and laid out, whatever is on screen counts as read
+            recyclerView.post(this::markVisibleMessagesRead);
+        }
+    }
 
-        // Log for debugging
-        Log.d(TAG, "Updating chat info - Current User: " + currentUser.getUid()
-                + ", Other User: " + otherUserId + ", Message: " + lastMessageContent);
+    @Override
+    protected void onStop() {
+        super.onStop();
 
-        // Update chat info for current user
-        db.collection("users").document(currentUser.getUid())
-                .collection("chats").document(otherUserId)
-                .set(chatInfo)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Chat info updated for current user");
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Failed to update chat info for current user", e);
-                    Toast.makeText(ChatActivity.this, "Failed to update chat info", Toast.LENGTH_SHORT).show();
-                });
+        if (typingIndicator != null) {
+            typingIndicator.stop();
+        }
+        if (receiptsRegistration != null) {
+            receiptsRegistration.remove();
+            receiptsRegistration = null;
+        }
 
-        // Update chat info for other user
-        db.collection("users").document(otherUserId)
-                .collection("chats").document(currentUser.getUid())
-                .set(chatInfo)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Chat info updated for other user");
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Failed to update chat info for other user", e);
-                    Toast.makeText(ChatActivity.this, "Failed to update chat info for receiver", Toast.LENGTH_SHORT).show();
-                });
+        // Don't leave receipts and reaction changes waiting on the debounce while the app is in the background
+        ReceiptWriter.getInstance().flush();
+        ReactionWriter.getInstance().flush();
     }
 
-}
\ No newline at end of file
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (historyPager != null) {
+            historyPager.stop();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.finalchatapp;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.finalchatapp.adapters.SearchResultsAdapter;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.models.MessageSearchResult;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches every conversation stored on the device, without any network access
+ */
+public class SearchActivity extends AppCompatActivity {
+
+    private static final String TAG = "SearchActivity";
+
+    private static final int MAX_RESULTS = 50;
+    // Wait for a pause in typing before running the query
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    private EditText searchInput;
+    private TextView emptyView;
+    private SearchResultsAdapter adapter;
+
+    private MessageStore messageStore;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::runSearch;
+
+    // Incremented per query so results of an outdated query are dropped
+    private int searchGeneration = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
+        if (currentUser == null) {
+            finish();
+            return;
+        }
+
+        messageStore = MessageStore.getInstance(this);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        getSupportActionBar().setDisplayShowTitleEnabled(false);
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        searchInput = findViewById(R.id.search_input);
+        emptyView = findViewById(R.id.empty_view);
+
+        RecyclerView recyclerView = findViewById(R.id.search_results);
+        adapter = new SearchResultsAdapter(this, currentUser.getUid());
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setAdapter(adapter);
+
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                handler.removeCallbacks(searchRunnable);
+                handler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+        searchInput.requestFocus();
+    }
+
+    private void runSearch() {
+        String query = searchInput.getText().toString().trim();
+        int generation = ++searchGeneration;
+
+        if (query.isEmpty()) {
+            adapter.setResults(new ArrayList<>());
+            emptyView.setVisibility(View.GONE);
+            return;
+        }
+
+        AppExecutors.diskIO().execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            List<MessageSearchResult> results = messageStore.search(query, MAX_RESULTS);
+            Log.d(TAG, "Search for \"" + query + "\" returned " + results.size() + " results in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+
+            AppExecutors.runOnMain(() -> {
+                if (generation != searchGeneration || isFinishing()) return;
+
+                adapter.setResults(results);
+                emptyView.setVisibility(results.isEmpty() ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(searchRunnable);
+    }
+}
@@ -13,9 +13,9 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.example.finalchatapp.ChatActivity;
 import com.example.finalchatapp.R;
+import com.example.finalchatapp.data.UserProfileRepository;
 import com.example.finalchatapp.models.ChatPreview;
 import com.example.finalchatapp.models.User;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -26,14 +26,16 @@ import de.hdodenhof.circleimageview.CircleImageView;
 
 public class ChatsAdapter extends RecyclerView.Adapter<ChatsAdapter.ViewHolder> {
 
+    private static final int MAX_BADGE_COUNT = 99;
+
     private Context context;
     private List<ChatPreview> chatPreviews;
-    private FirebaseFirestore db;
+    private UserProfileRepository profiles;
 
     public ChatsAdapter(Context context, List<ChatPreview> chatPreviews) {
         this.context = context;
         this.chatPreviews = chatPreviews;
-        this.db = FirebaseFirestore.getInstance();
+        this.profiles = UserProfileRepository.getInstance(context);
     }
 
     @NonNull
@@ -49,30 +51,30 @@ public class ChatsAdapter extends RecyclerView.Adapter<ChatsAdapter.ViewHolder>
         ChatPreview chatPreview = chatPreviews.get(position);
 
 
-        db.collection("users").document(chatPreview.getUserId())
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    User user = documentSnapshot.toObject(User.class);
-                    if (user != null) {
-                        holder.usernameText.setText(user.getUsername());
-
-
-                        if (user.getProfileImageUrl() != null && !user.getProfileImageUrl().isEmpty()) {
-                            Glide.with(context)
-                                    .load(user.getProfileImageUrl())
-                                    .placeholder(R.drawable.default_profile)
-                                    .error(R.drawable.default_profile)
-                                    .into(holder.profileImage);
-                        } else {
-                            holder.profileImage.setImageResource(R.drawable.default_profile);
-                        }
-                    }
-                });
+        // Cached profiles bind right away; otherwise clear what a recycled row showed until it arrives
+        String userId = chatPreview.getUserId();
+        holder.boundUserId = userId;
+        holder.usernameText.setText("");
+        Glide.with(context).clear(holder.profileImage);
+        holder.profileImage.setImageResource(R.drawable.default_profile);
+        profiles.get(userId, user -> {
+            if (user != null && userId.equals(holder.boundUserId)) {
+                bindUser(holder, user);
+            }
+        });
 
 
         holder.lastMessageText.setText(chatPreview.getLastMessageContent());
         holder.timeText.setText(formatTime(chatPreview.getLastMessageTimestamp()));
 
+        long unreadCount = chatPreview.getUnreadCount();
+        if (unreadCount > 0) {
+            holder.unreadBadge.setText(unreadCount > MAX_BADGE_COUNT ? MAX_BADGE_COUNT + "+" : String.valueOf(unreadCount));
+            holder.unreadBadge.setVisibility(View.VISIBLE);
+        } else {
+            holder.unreadBadge.setVisibility(View.GONE);
+        }
+
 
         holder.itemView.setOnClickListener(v -> {
             Intent intent = new Intent(context, ChatActivity.class);
@@ -81,6 +83,20 @@ public class ChatsAdapter extends RecyclerView.Adapter<ChatsAdapter.ViewHolder>
         });
     }
 
+    private void bindUser(ViewHolder holder, User user) {
+        holder.usernameText.setText(user.getUsername());
+
+        if (user.getProfileImageUrl() != null && !user.getProfileImageUrl().isEmpty()) {
+            Glide.with(context)
+                    .load(user.getProfileImageUrl())
+                    .placeholder(R.drawable.default_profile)
+                    .error(R.drawable.default_profile)
+                    .into(holder.profileImage);
+        } else {
+            holder.profileImage.setImageResource(R.drawable.default_profile);
+        }
+    }
+
     @Override
     public int getItemCount() {
         return chatPreviews.size();
@@ -88,7 +104,8 @@ public class ChatsAdapter extends RecyclerView.Adapter<ChatsAdapter.ViewHolder>
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         CircleImageView profileImage;
-        TextView usernameText, lastMessageText, timeText;
+        TextView usernameText, lastMessageText, timeText, unreadBadge;
+        String boundUserId;
 
         ViewHolder(View itemView) {
             super(itemView);
@@ -96,6 +113,7 @@ public class ChatsAdapter extends RecyclerView.Adapter<ChatsAdapter.ViewHolder>
             usernameText = itemView.findViewById(R.id.username_text);
             lastMessageText = itemView.findViewById(R.id.last_message_text);
             timeText = itemView.findViewById(R.id.time_text);
+            unreadBadge = itemView.findViewById(R.id.unread_badge);
         }
     }
 
@@ -0,0 +1,56 @@
+package com.example.finalchatapp.adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.finalchatapp.R;
+
+/**
+ * Single-row header shown above the messages while an older page of history is loading
+ */
+public class HistoryLoadStateAdapter extends RecyclerView.Adapter<HistoryLoadStateAdapter.ViewHolder> {
+
+    private boolean loading = false;
+
+    public void setLoading(boolean loading) {
+        if (this.loading == loading) return;
+
+        this.loading = loading;
+        if (loading) {
+            notifyItemInserted(0);
+        } else {
+            notifyItemRemoved(0);
+        }
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_history_loading, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        // Nothing to bind, the row is just a progress indicator
+    }
+
+    @Override
+    public int getItemCount() {
+        return loading ? 1 : 0;
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        ViewHolder(View itemView) {
+            super(itemView);
+        }
+    }
+}
@@ -1,51 +1,162 @@
 package com.example.finalchatapp.adapters;
 
+import android.app.Dialog;
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.content.ContextCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.load.DecodeFormat;
 import com.example.finalchatapp.EmojiReactionDialog;
 import com.example.finalchatapp.R;
+import com.example.finalchatapp.data.ConversationBuffer;
+import com.example.finalchatapp.data.ReactionWriter;
+import com.example.finalchatapp.media.BlurHash;
 import com.example.finalchatapp.EmojiReactionDialog;
 import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.views.ReactionChipsView;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntSupplier;
 
-public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class MessageAdapter extends ListAdapter<MessageRow, RecyclerView.ViewHolder> {
 
-    private static final int VIEW_TYPE_SENT = 1;
-    private static final int VIEW_TYPE_RECEIVED = 2;
-    private static final int VIEW_TYPE_IMAGE_SENT = 3;
-    private static final int VIEW_TYPE_IMAGE_RECEIVED = 4;
+    static final int VIEW_TYPE_SENT = 1;
+    static final int VIEW_TYPE_RECEIVED = 2;
+    static final int VIEW_TYPE_IMAGE_SENT = 3;
+    static final int VIEW_TYPE_IMAGE_RECEIVED = 4;
+
+    // Partial rebind payload flags, so a reaction, receipt, send-state or day change doesn't rebind the whole bubble
+    private static final int PAYLOAD_REACTIONS = 1;
+    private static final int PAYLOAD_SEEN = 1 << 1;
+    private static final int PAYLOAD_STATUS = 1 << 2;
+    private static final int PAYLOAD_DAY = 1 << 3;
 
     private static final String TAG = "MessageAdapter";
 
+    private static final int RECEIPT_COLOR_DELIVERED = 0xFF757575;
+    private static final int RECEIPT_COLOR_READ = 0xFF2196F3;
+
+    // Decoded blur placeholders, shared by every image row
+    private static final int PLACEHOLDER_DECODE_EDGE = 32;
+    private static final LruCache<String, Bitmap> PLACEHOLDER_CACHE = new LruCache<>(64);
+
+    private static final DiffUtil.ItemCallback<MessageRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageRow oldItem, @NonNull MessageRow newItem) {
+            return Objects.equals(oldItem.getMessageId(), newItem.getMessageId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageRow oldItem, @NonNull MessageRow newItem) {
+            return sameBody(oldItem.message, newItem.message)
+                    && oldItem.receipt == newItem.receipt
+                    && oldItem.statusText.equals(newItem.statusText)
+                    && Objects.equals(oldItem.dayLabel, newItem.dayLabel)
+                    && oldItem.reactions.equals(newItem.reactions);
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull MessageRow oldItem, @NonNull MessageRow newItem) {
+            if (!sameBody(oldItem.message, newItem.message)) {
+                return null;
+            }
+
+            int flags = 0;
+            if (!oldItem.reactions.equals(newItem.reactions)) {
+                flags |= PAYLOAD_REACTIONS;
+            }
+            if (oldItem.receipt != newItem.receipt) {
+                flags |= PAYLOAD_SEEN;
+            }
+            if (!oldItem.statusText.equals(newItem.statusText)) {
+                flags |= PAYLOAD_STATUS;
+            }
+            if (!Objects.equals(oldItem.dayLabel, newItem.dayLabel)) {
+                flags |= PAYLOAD_DAY;
+            }
+            return flags;
+        }
+
+        private boolean sameBody(Message oldItem, Message newItem) {
+            return oldItem.getType() == newItem.getType()
+                    && oldItem.getTimestamp() == newItem.getTimestamp()
+                    && Objects.equals(oldItem.getSenderId(), newItem.getSenderId())
+                    && Objects.equals(oldItem.getContent(), newItem.getContent())
+                    && Objects.equals(oldItem.getImageUrl(), newItem.getImageUrl())
+                    && Objects.equals(oldItem.getThumbnailUrl(), newItem.getThumbnailUrl())
+                    && oldItem.getWidth() == newItem.getWidth()
+                    && oldItem.getHeight() == newItem.getHeight()
+                    && Objects.equals(oldItem.getPlaceholderHash(), newItem.getPlaceholderHash());
+        }
+    };
+
     private Context context;
-    private List<Message> messageList;
+    private ConversationBuffer messageList;
     private String currentUserId;
     private String chatId;
+    private final MessagePresenter presenter;
 
-    public MessageAdapter(Context context, List<Message> messageList, String currentUserId) {
+    public MessageAdapter(Context context, ConversationBuffer messageList, String currentUserId) {
+        super(DIFF_CALLBACK);
         this.context = context;
         this.messageList = messageList;
         this.currentUserId = currentUserId;
+        this.presenter = new MessagePresenter(context, currentUserId,
+                textMetricsParams(R.layout.item_message_sent), textMetricsParams(R.layout.item_message_received));
+    }
+
+    // First guess at the bubble's paint and layout settings; corrected from the real TextView on bind
+    private PrecomputedTextCompat.Params textMetricsParams(int layoutRes) {
+        View prototype = LayoutInflater.from(context).inflate(layoutRes, null, false);
+        TextView messageText = prototype.findViewById(R.id.message_text);
+        return TextViewCompat.getTextMetricsParams(messageText);
+    }
+
+    /**
+     * Publish the current contents of the message list.
+     * Row models are built on the presentation thread, the diff runs in the background
+     * and only changed rows are rebound.
+     */
+    public void submitMessages(Runnable commitCallback) {
+        presenter.present(new ArrayList<>(messageList), rows -> submitList(rows, commitCallback));
+    }
+
+    public void submitMessages() {
+        submitMessages(null);
+    }
+
+    // A bound bubble measures differently than the rows were built for; rebuild its rows with its settings
+    private void onTextParamsChanged(boolean sent, PrecomputedTextCompat.Params params) {
+        if (presenter.setTextParams(sent, params)) {
+            submitMessages();
+        }
     }
 
 
@@ -56,57 +167,97 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     @NonNull
     @Override
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        MessageHolder holder = createHolder(parent, viewType);
+
+        // Listeners look the row up when fired, so binding doesn't allocate new ones
+        holder.itemView.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                showReactionPicker(getItem(position).getMessageId());
+            }
+            return true;
+        });
+        holder.reactionsView.setOnChipClickListener(emoji -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                toggleReaction(getItem(position).getMessageId(), emoji);
+            }
+        });
+        if (holder instanceof ImageHolder) {
+            ((ImageHolder) holder).imageView.setOnClickListener(v -> {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    showFullImage(v.getContext(), getItem(position).message);
+                }
+            });
+        }
+        return holder;
+    }
+
+    private MessageHolder createHolder(ViewGroup parent, int viewType) {
         View view;
 
         switch (viewType) {
             case VIEW_TYPE_SENT:
                 view = LayoutInflater.from(context).inflate(R.layout.item_message_sent, parent, false);
-                return new SentMessageHolder(view);
+                return new TextHolder(view, this);
             case VIEW_TYPE_RECEIVED:
                 view = LayoutInflater.from(context).inflate(R.layout.item_message_received, parent, false);
-                return new ReceivedMessageHolder(view);
+                return new TextHolder(view, this);
             case VIEW_TYPE_IMAGE_SENT:
                 view = LayoutInflater.from(context).inflate(R.layout.item_message_image_sent, parent, false);
-                return new SentImageHolder(view);
+                return new ImageHolder(view);
             case VIEW_TYPE_IMAGE_RECEIVED:
                 view = LayoutInflater.from(context).inflate(R.layout.item_message_image_received, parent, false);
-                return new ReceivedImageHolder(view);
+                return new ImageHolder(view);
             default:
                 Log.e(TAG, "Unknown view type: " + viewType);
                 view = LayoutInflater.from(context).inflate(R.layout.item_message_sent, parent, false);
-                return new SentMessageHolder(view);
+                return new TextHolder(view, this);
         }
     }
 
     @Override
-    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        try {
-            Message message = messageList.get(position);
-
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
 
-            switch (holder.getItemViewType()) {
-                case VIEW_TYPE_SENT:
-                    ((SentMessageHolder) holder).bind(message);
-                    break;
-                case VIEW_TYPE_RECEIVED:
-                    ((ReceivedMessageHolder) holder).bind(message);
-                    break;
-                case VIEW_TYPE_IMAGE_SENT:
-                    ((SentImageHolder) holder).bind(message);
-                    break;
-                case VIEW_TYPE_IMAGE_RECEIVED:
-                    ((ReceivedImageHolder) holder).bind(message);
-                    break;
+        int flags = 0;
+        for (Object payload : payloads) {
+            if (payload instanceof Integer) {
+                flags |= (Integer) payload;
             }
+        }
 
+        MessageHolder messageHolder = (MessageHolder) holder;
+        MessageRow row = getItem(position);
+        if ((flags & PAYLOAD_REACTIONS) != 0) {
+            messageHolder.reactionsView.setChips(row.reactions);
+        }
+        if ((flags & PAYLOAD_STATUS) != 0) {
+            messageHolder.timeText.setText(row.statusText);
+        }
+        if ((flags & PAYLOAD_DAY) != 0) {
+            messageHolder.bindDay(row);
+        }
+        if ((flags & PAYLOAD_SEEN) != 0) {
+            messageHolder.bindReceipt(row);
+        }
+    }
 
-            setupReactions(holder, message);
-
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        try {
+            MessageHolder messageHolder = (MessageHolder) holder;
+            MessageRow row = getItem(position);
 
-            holder.itemView.setOnLongClickListener(v -> {
-                showReactionPicker(message.getMessageId());
-                return true;
-            });
+            messageHolder.bind(row);
+            messageHolder.bindDay(row);
+            messageHolder.timeText.setText(row.statusText);
+            messageHolder.reactionsView.setChips(row.reactions);
+            messageHolder.bindReceipt(row);
 
         } catch (Exception e) {
             Log.e(TAG, "Error binding message at position " + position, e);
@@ -114,181 +265,256 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     }
 
     @Override
-    public int getItemCount() {
-        return messageList.size();
+    public int getItemViewType(int position) {
+        return getItem(position).viewType;
     }
 
     @Override
-    public int getItemViewType(int position) {
-        Message message = messageList.get(position);
-        if (message.getSenderId().equals(currentUserId)) {
-
-            return message.getType() == Message.TYPE_IMAGE ? VIEW_TYPE_IMAGE_SENT : VIEW_TYPE_SENT;
-        } else {
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
 
-            return message.getType() == Message.TYPE_IMAGE ? VIEW_TYPE_IMAGE_RECEIVED : VIEW_TYPE_RECEIVED;
+        // Cancel the load of a row that scrolled away and release its bitmap
+        if (holder instanceof ImageHolder) {
+            Glide.with(context).clear(((ImageHolder) holder).imageView);
         }
     }
 
-    static class SentMessageHolder extends RecyclerView.ViewHolder {
-        TextView messageText, timeText;
-        LinearLayout reactionsContainer;
+    /**
+     * Views shared by every bubble layout
+     */
+    abstract static class MessageHolder extends RecyclerView.ViewHolder {
+        TextView dayText, timeText;
+        // Only in sent layouts
+        @Nullable TextView receiptText;
+        ReactionChipsView reactionsView;
 
-        SentMessageHolder(View itemView) {
+        MessageHolder(View itemView) {
             super(itemView);
-            messageText = itemView.findViewById(R.id.message_text);
+            dayText = itemView.findViewById(R.id.day_text);
             timeText = itemView.findViewById(R.id.time_text);
-            reactionsContainer = itemView.findViewById(R.id.reactions_container);
+            receiptText = itemView.findViewById(R.id.receipt_text);
+            reactionsView = itemView.findViewById(R.id.reactions_view);
         }
 
-        void bind(Message message) {
-            messageText.setText(message.getContent());
-            timeText.setText(formatTime(message.getTimestamp()));
-        }
-    }
+        abstract void bind(MessageRow row);
 
-    static class ReceivedMessageHolder extends RecyclerView.ViewHolder {
-        TextView messageText, timeText;
-        LinearLayout reactionsContainer;
+        void bindReceipt(MessageRow row) {
+            if (receiptText == null) {
+                return;
+            }
 
-        ReceivedMessageHolder(View itemView) {
-            super(itemView);
-            messageText = itemView.findViewById(R.id.message_text);
-            timeText = itemView.findViewById(R.id.time_text);
-            reactionsContainer = itemView.findViewById(R.id.reactions_container);
+            switch (row.receipt) {
+                case MessageRow.RECEIPT_READ:
+                    receiptText.setText(R.string.receipt_read);
+                    receiptText.setTextColor(RECEIPT_COLOR_READ);
+                    receiptText.setVisibility(View.VISIBLE);
+                    break;
+                case MessageRow.RECEIPT_DELIVERED:
+                    receiptText.setText(R.string.receipt_delivered);
+                    receiptText.setTextColor(RECEIPT_COLOR_DELIVERED);
+                    receiptText.setVisibility(View.VISIBLE);
+                    break;
+                default:
+                    receiptText.setVisibility(View.GONE);
+                    break;
+            }
         }
 
-        void bind(Message message) {
-            messageText.setText(message.getContent());
-            timeText.setText(formatTime(message.getTimestamp()));
+        void bindDay(MessageRow row) {
+            if (row.showsDay()) {
+                dayText.setText(row.dayLabel);
+                dayText.setVisibility(View.VISIBLE);
+            } else {
+                dayText.setVisibility(View.GONE);
+            }
         }
     }
 
-    static class SentImageHolder extends RecyclerView.ViewHolder {
-        ImageView imageView;
-        TextView timeText;
-        LinearLayout reactionsContainer;
+    static class TextHolder extends MessageHolder {
+        TextView messageText;
+        private final MessageAdapter adapter;
+        // The TextView's measuring settings; only the direction can change once the view is attached
+        private PrecomputedTextCompat.Params textParams;
+        private int paramsLayoutDirection;
+        private int paramsTextDirection;
 
-        SentImageHolder(View itemView) {
+        TextHolder(View itemView, MessageAdapter adapter) {
             super(itemView);
-            imageView = itemView.findViewById(R.id.image_message);
-            timeText = itemView.findViewById(R.id.time_text);
-            reactionsContainer = itemView.findViewById(R.id.reactions_container);
+            messageText = itemView.findViewById(R.id.message_text);
+            this.adapter = adapter;
         }
 
-        void bind(Message message) {
-
-            Glide.with(itemView.getContext())
-                    .load(message.getImageUrl())
-                    .placeholder(R.drawable.ic_image_placeholder)
-                    .error(R.drawable.ic_error_placeholder)
-                    .into(imageView);
-
-            timeText.setText(formatTime(message.getTimestamp()));
-
-
-            imageView.setOnClickListener(v -> {
+        @Override
+        void bind(MessageRow row) {
+            // Precomputed text is rejected unless it was measured with exactly the TextView's settings,
+            // e.g. the resolved text direction in an RTL locale
+            PrecomputedTextCompat.Params params = textParams();
+            if (params == row.body.getParams() || params.equals(row.body.getParams())) {
+                // Already measured on the presentation thread
+                TextViewCompat.setPrecomputedText(messageText, row.body);
+            } else {
+                messageText.setText(row.body.toString());
+                adapter.onTextParamsChanged(row.viewType == VIEW_TYPE_SENT, params);
+            }
+        }
 
-                Log.d(TAG, "Image clicked: " + message.getImageUrl());
-            });
+        private PrecomputedTextCompat.Params textParams() {
+            int layoutDirection = messageText.getLayoutDirection();
+            int textDirection = messageText.getTextDirection();
+            if (textParams == null || layoutDirection != paramsLayoutDirection || textDirection != paramsTextDirection) {
+                textParams = TextViewCompat.getTextMetricsParams(messageText);
+                paramsLayoutDirection = layoutDirection;
+                paramsTextDirection = textDirection;
+            }
+            return textParams;
         }
     }
 
-    static class ReceivedImageHolder extends RecyclerView.ViewHolder {
+    static class ImageHolder extends MessageHolder {
         ImageView imageView;
-        TextView timeText;
-        LinearLayout reactionsContainer;
 
-        ReceivedImageHolder(View itemView) {
+        ImageHolder(View itemView) {
             super(itemView);
             imageView = itemView.findViewById(R.id.image_message);
-            timeText = itemView.findViewById(R.id.time_text);
-            reactionsContainer = itemView.findViewById(R.id.reactions_container);
         }
 
-        void bind(Message message) {
-
-            Glide.with(itemView.getContext())
-                    .load(message.getImageUrl())
-                    .placeholder(R.drawable.ic_image_placeholder)
-                    .error(R.drawable.ic_error_placeholder)
-                    .into(imageView);
-
-            timeText.setText(formatTime(message.getTimestamp()));
-
-
-            imageView.setOnClickListener(v -> {
-
-                Log.d(TAG, "Image clicked: " + message.getImageUrl());
-            });
+        @Override
+        void bind(MessageRow row) {
+            bindImage(imageView, row.message);
         }
     }
 
-    private static String formatTime(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat("h:mm a", Locale.getDefault());
-        return sdf.format(new Date(timestamp));
-    }
-
-
-
-    private void setupReactions(RecyclerView.ViewHolder holder, Message message) {
-        LinearLayout reactionsContainer;
-
-
-        if (holder instanceof SentMessageHolder) {
-            reactionsContainer = ((SentMessageHolder) holder).reactionsContainer;
-        } else if (holder instanceof ReceivedMessageHolder) {
-            reactionsContainer = ((ReceivedMessageHolder) holder).reactionsContainer;
-        } else if (holder instanceof SentImageHolder) {
-            reactionsContainer = ((SentImageHolder) holder).reactionsContainer;
-        } else if (holder instanceof ReceivedImageHolder) {
-            reactionsContainer = ((ReceivedImageHolder) holder).reactionsContainer;
+    /**
+     * Size the bubble from the stored dimensions before anything loads, paint the blur placeholder,
+     * then load the thumbnail into it, so the row never changes height while scrolling
+     */
+    private static void bindImage(ImageView imageView, Message message) {
+        int[] size = imageSize(imageView.getResources(), message);
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (size != null) {
+            params.height = size[1];
+            imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
         } else {
-            return;
+            // Older messages without dimensions keep sizing to the loaded image
+            params.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+            imageView.setScaleType(ImageView.ScaleType.FIT_CENTER);
         }
+        imageView.setLayoutParams(params);
+
+        // The list only needs the thumbnail; full resolution is fetched on tap
+        Bitmap placeholder = placeholderBitmap(message);
+        RequestBuilder<Drawable> request = thumbnailRequest(Glide.with(imageView.getContext()), message, size);
+        request = placeholder != null
+                ? request.placeholder(new BitmapDrawable(imageView.getResources(), placeholder))
+                : request.placeholder(R.drawable.ic_image_placeholder);
+        request.error(R.drawable.ic_error_placeholder)
+                .into(imageView);
+    }
 
+    /**
+     * Exact pixel size of an image bubble, or null for older messages without stored dimensions
+     */
+    @Nullable
+    private static int[] imageSize(Resources resources, Message message) {
+        if (message.getWidth() <= 0 || message.getHeight() <= 0) {
+            return null;
+        }
 
-        reactionsContainer.removeAllViews();
+        int width = resources.getDimensionPixelSize(R.dimen.message_image_width);
+        int maxHeight = resources.getDimensionPixelSize(R.dimen.message_image_max_height);
+        int height = Math.max(1, Math.min(maxHeight,
+                Math.round((float) width * message.getHeight() / message.getWidth())));
+        return new int[]{width, height};
+    }
 
-        Map<String, List<String>> reactions = message.getReactions();
-        if (reactions == null || reactions.isEmpty()) {
-            reactionsContainer.setVisibility(View.GONE);
-            return;
+    // Shared by binding and preloading: the same size and options give the same memory cache key
+    private static RequestBuilder<Drawable> thumbnailRequest(RequestManager glide, Message message, @Nullable int[] size) {
+        // Thumbnails are opaque, so 16 bits per pixel is enough and halves their memory
+        RequestBuilder<Drawable> request = glide.load(previewUrl(message))
+                .format(DecodeFormat.PREFER_RGB_565);
+        if (size != null) {
+            request = request.override(size[0], size[1]).centerCrop();
         }
+        return request;
+    }
 
-        reactionsContainer.setVisibility(View.VISIBLE);
+    /**
+     * Scroll listener that loads the thumbnails of the next image messages in the scroll direction,
+     * at the exact size their rows will request, before they are bound.
+     * positionOffset returns how many items the RecyclerView shows ahead of this adapter.
+     */
+    public RecyclerViewPreloader<Message> createImagePreloader(@NonNull RequestManager glide,
+                                                               @NonNull IntSupplier positionOffset, int maxPreload) {
+        Resources resources = context.getResources();
+        ListPreloader.PreloadModelProvider<Message> modelProvider = new ListPreloader.PreloadModelProvider<Message>() {
+            @NonNull
+            @Override
+            public List<Message> getPreloadItems(int position) {
+                int index = position - positionOffset.getAsInt();
+                if (index < 0 || index >= getItemCount()) {
+                    return Collections.emptyList();
+                }
 
+                Message message = getItem(index).message;
+                if (message.getType() != Message.TYPE_IMAGE || imageSize(resources, message) == null) {
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(message);
+            }
 
-        for (Map.Entry<String, List<String>> entry : reactions.entrySet()) {
-            String emoji = entry.getKey();
-            int count = entry.getValue().size();
+            @Nullable
+            @Override
+            public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Message message) {
+                return thumbnailRequest(glide, message, imageSize(resources, message));
+            }
+        };
+        ListPreloader.PreloadSizeProvider<Message> sizeProvider =
+                (message, adapterPosition, perItemPosition) -> imageSize(resources, message);
 
-            TextView reactionView = new TextView(context);
-            reactionView.setText(emoji + " " + count);
-            reactionView.setPadding(8, 4, 8, 4);
-            reactionView.setBackground(ContextCompat.getDrawable(context, R.drawable.reaction_background));
-            reactionView.setTextSize(12);
+        return new RecyclerViewPreloader<>(glide, modelProvider, sizeProvider, maxPreload);
+    }
 
+    private static Bitmap placeholderBitmap(Message message) {
+        String hash = message.getPlaceholderHash();
+        if (hash == null || message.getWidth() <= 0 || message.getHeight() <= 0) {
+            return null;
+        }
 
-            if (message.hasUserReacted(emoji, currentUserId)) {
-                reactionView.setTextColor(ContextCompat.getColor(context, R.color.black));
+        Bitmap cached = PLACEHOLDER_CACHE.get(hash);
+        if (cached == null) {
+            // A blur needs very few pixels; the ImageView scales it up
+            int height = Math.max(1, Math.min(PLACEHOLDER_DECODE_EDGE * 2,
+                    PLACEHOLDER_DECODE_EDGE * message.getHeight() / message.getWidth()));
+            cached = BlurHash.decode(hash, PLACEHOLDER_DECODE_EDGE, height);
+            if (cached != null) {
+                PLACEHOLDER_CACHE.put(hash, cached);
             }
+        }
+        return cached;
+    }
 
+    private static String previewUrl(Message message) {
+        String thumbnailUrl = message.getThumbnailUrl();
+        return thumbnailUrl != null ? thumbnailUrl : message.getImageUrl();
+    }
 
-            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-                    LinearLayout.LayoutParams.WRAP_CONTENT,
-                    LinearLayout.LayoutParams.WRAP_CONTENT
-            );
-            params.setMargins(0, 0, 8, 0);
-            reactionView.setLayoutParams(params);
+    // Show the full-resolution image, starting from the cached thumbnail while it loads
+    private static void showFullImage(Context context, Message message) {
+        Log.d(TAG, "Image clicked: " + message.getImageUrl());
 
+        Dialog dialog = new Dialog(context, android.R.style.Theme_Black_NoTitleBar_Fullscreen);
+        ImageView fullImage = new ImageView(context);
+        fullImage.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        fullImage.setOnClickListener(v -> dialog.dismiss());
+        dialog.setContentView(fullImage);
 
-            reactionView.setOnClickListener(v -> {
-                toggleReaction(message.getMessageId(), emoji);
-            });
+        Glide.with(context)
+                .load(message.getImageUrl())
+                .thumbnail(Glide.with(context).load(previewUrl(message)))
+                .error(R.drawable.ic_error_placeholder)
+                .into(fullImage);
 
-            reactionsContainer.addView(reactionView);
-        }
+        dialog.show();
     }
 
     private void showReactionPicker(String messageId) {
@@ -303,40 +529,26 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             return;
         }
 
-        // Find the message
-        for (int i = 0; i < messageList.size(); i++) {
-            Message message = messageList.get(i);
-            if (message.getMessageId().equals(messageId)) {
-
-                if (message.hasUserReacted(emoji, currentUserId)) {
-                    message.removeReaction(emoji, currentUserId);
-                } else {
-                    message.addReaction(emoji, currentUserId);
-                }
-
-
-                notifyItemChanged(i);
+        Message message = messageList.getById(messageId);
 
+        // The document doesn't exist in Firestore until the outbox has sent it
+        if (message == null || message.isPending()) {
+            return;
+        }
 
-                updateMessageReactionsInFirestore(messageId, message.getReactions());
-
-                break;
-            }
+        // Replace with a copy so the differ sees the change and only rebinds the reactions
+        Message updated = new Message(message);
+        boolean reacted = !updated.hasUserReacted(emoji, currentUserId);
+        if (reacted) {
+            updated.addReaction(emoji, currentUserId);
+        } else {
+            updated.removeReaction(emoji, currentUserId);
         }
-    }
 
-    private void updateMessageReactionsInFirestore(String messageId, Map<String, List<String>> reactions) {
-        FirebaseFirestore.getInstance()
-                .collection("chats")
-                .document(chatId)
-                .collection("messages")
-                .document(messageId)
-                .update("reactions", reactions)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Reaction updated successfully");
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Failed to update reaction: " + e.getMessage());
-                });
+        messageList.upsert(updated);
+        submitMessages();
+
+        // Only this user's entry under this emoji is written, coalesced with other quick toggles
+        ReactionWriter.getInstance().setReaction(chatId, messageId, emoji, currentUserId, reacted);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+package com.example.finalchatapp.adapters;
+
+import android.content.Context;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.finalchatapp.AppExecutors;
+import com.example.finalchatapp.R;
+import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.models.ReactionSummary;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Turns the message list into MessageRow models on the presentation thread.
+ * View types, times, day separators, reaction chips and text layout are worked out here,
+ * so binding a row on the main thread is plain field assignment.
+ */
+class MessagePresenter {
+
+    interface Callback {
+        void onRowsReady(@NonNull List<MessageRow> rows);
+    }
+
+    private final String currentUserId;
+    // Written on the main thread once a bound TextView shows the real settings
+    private volatile PrecomputedTextCompat.Params sentTextParams;
+    private volatile PrecomputedTextCompat.Params receivedTextParams;
+    private final String todayLabel;
+    private final String yesterdayLabel;
+
+    // Only touched on the presentation thread, so the formatters are created once and reused
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a", Locale.getDefault());
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("EEE, MMM d", Locale.getDefault());
+    private final SimpleDateFormat dayWithYearFormat = new SimpleDateFormat("MMM d, yyyy", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+    private final Date date = new Date();
+
+    // Rows of the previous pass; messages are replaced rather than mutated, so an identical instance means an identical row
+    private Map<Message, MessageRow> previousRows = new IdentityHashMap<>();
+
+    MessagePresenter(@NonNull Context context, @NonNull String currentUserId,
+                     @NonNull PrecomputedTextCompat.Params sentTextParams,
+                     @NonNull PrecomputedTextCompat.Params receivedTextParams) {
+        this.currentUserId = currentUserId;
+        this.sentTextParams = sentTextParams;
+        this.receivedTextParams = receivedTextParams;
+        this.todayLabel = context.getString(R.string.day_today);
+        this.yesterdayLabel = context.getString(R.string.day_yesterday);
+    }
+
+    /**
+     * Measure text with the settings of the bubbles' TextViews from the next pass on; rows measured
+     * with other settings are rebuilt then. Returns whether the settings changed.
+     */
+    @MainThread
+    boolean setTextParams(boolean sent, @NonNull PrecomputedTextCompat.Params params) {
+        PrecomputedTextCompat.Params current = sent ? sentTextParams : receivedTextParams;
+        if (current.equals(params)) {
+            return false;
+        }
+        if (sent) {
+            sentTextParams = params;
+        } else {
+            receivedTextParams = params;
+        }
+        return true;
+    }
+
+    /**
+     * Build rows for a snapshot of the message list and deliver them on the main thread, in submission order
+     */
+    void present(@NonNull List<Message> messages, @NonNull Callback callback) {
+        AppExecutors.presentation().execute(() -> {
+            List<MessageRow> rows = buildRows(messages);
+            AppExecutors.runOnMain(() -> callback.onRowsReady(rows));
+        });
+    }
+
+    @WorkerThread
+    private List<MessageRow> buildRows(List<Message> messages) {
+        Map<Message, MessageRow> rowsByMessage = new IdentityHashMap<>(messages.size());
+        List<MessageRow> rows = new ArrayList<>(messages.size());
+
+        long now = System.currentTimeMillis();
+        int today = dayKey(now);
+        int currentYear = calendar.get(Calendar.YEAR);
+        calendar.add(Calendar.DAY_OF_YEAR, -1);
+        int yesterday = dayKey(calendar.getTimeInMillis());
+
+        PrecomputedTextCompat.Params sentParams = sentTextParams;
+        PrecomputedTextCompat.Params receivedParams = receivedTextParams;
+
+        int previousDay = Integer.MIN_VALUE;
+        for (Message message : messages) {
+            int day = dayKey(message.getTimestamp());
+            String dayLabel = day != previousDay ? dayLabel(message.getTimestamp(), day, today, yesterday, currentYear) : null;
+            previousDay = day;
+
+            MessageRow row = previousRows.get(message);
+            if (row != null && row.body != null
+                    && row.body.getParams() != (row.viewType == MessageAdapter.VIEW_TYPE_SENT ? sentParams : receivedParams)) {
+                // Measured with settings the bubbles have since been found not to use
+                row = null;
+            }
+            if (row == null || !Objects.equals(row.dayLabel, dayLabel)) {
+                row = buildRow(message, dayLabel, row, sentParams, receivedParams);
+            }
+            rows.add(row);
+            rowsByMessage.put(message, row);
+        }
+
+        previousRows = rowsByMessage;
+        return rows;
+    }
+
+    private MessageRow buildRow(Message message, String dayLabel, MessageRow previous,
+                                PrecomputedTextCompat.Params sentParams, PrecomputedTextCompat.Params receivedParams) {
+        boolean sent = currentUserId.equals(message.getSenderId());
+        boolean image = message.getType() == Message.TYPE_IMAGE;
+        int viewType = sent
+                ? (image ? MessageAdapter.VIEW_TYPE_IMAGE_SENT : MessageAdapter.VIEW_TYPE_SENT)
+                : (image ? MessageAdapter.VIEW_TYPE_IMAGE_RECEIVED : MessageAdapter.VIEW_TYPE_RECEIVED);
+
+        if (previous != null) {
+            // Only the day separator moved; keep the already measured text
+            return new MessageRow(message, viewType, previous.body, previous.statusText, dayLabel, previous.reactions,
+                    previous.receipt);
+        }
+
+        PrecomputedTextCompat body = null;
+        if (!image) {
+            String content = message.getContent() != null ? message.getContent() : "";
+            body = PrecomputedTextCompat.create(content, sent ? sentParams : receivedParams);
+        }
+
+        return new MessageRow(message, viewType, body, statusText(message), dayLabel, reactionChips(message),
+                sent ? receipt(message) : MessageRow.RECEIPT_NONE);
+    }
+
+    private int receipt(Message message) {
+        if (message.isPending()) {
+            return MessageRow.RECEIPT_NONE;
+        }
+        if (message.isSeen()) {
+            return MessageRow.RECEIPT_READ;
+        }
+        return message.isDelivered() ? MessageRow.RECEIPT_DELIVERED : MessageRow.RECEIPT_NONE;
+    }
+
+    // Time of the message, or its send state while it waits in the outbox
+    private String statusText(Message message) {
+        if (!message.isPending()) {
+            date.setTime(message.getTimestamp());
+            return timeFormat.format(date);
+        }
+        return message.getUploadProgress() >= 0 ? "Uploading " + message.getUploadProgress() + "%" : "Sending…";
+    }
+
+    private List<MessageRow.ReactionChip> reactionChips(Message message) {
+        ReactionSummary summary = message.getReactionSummary(currentUserId);
+        if (summary.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<MessageRow.ReactionChip> chips = new ArrayList<>(summary.size());
+        for (int i = 0; i < summary.size(); i++) {
+            String emoji = summary.emojiAt(i);
+            chips.add(new MessageRow.ReactionChip(emoji, emoji + " " + summary.countAt(i), summary.isMineAt(i)));
+        }
+        return Collections.unmodifiableList(chips);
+    }
+
+    private int dayKey(long timestamp) {
+        calendar.setTimeInMillis(timestamp);
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private String dayLabel(long timestamp, int day, int today, int yesterday, int currentYear) {
+        if (day == today) {
+            return todayLabel;
+        }
+        if (day == yesterday) {
+            return yesterdayLabel;
+        }
+
+        date.setTime(timestamp);
+        return day / 1000 == currentYear ? dayFormat.format(date) : dayWithYearFormat.format(date);
+    }
+}
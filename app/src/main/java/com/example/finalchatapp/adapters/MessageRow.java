@@ -0,0 +1,78 @@
+package com.example.finalchatapp.adapters;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.finalchatapp.models.Message;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable, ready-to-bind presentation of one message, built off the main thread by MessagePresenter
+ */
+public final class MessageRow {
+
+    /**
+     * One reaction chip under a bubble
+     */
+    public static final class ReactionChip {
+        public final String emoji;
+        public final String label;
+        public final boolean reactedByMe;
+
+        ReactionChip(String emoji, String label, boolean reactedByMe) {
+            this.emoji = emoji;
+            this.label = label;
+            this.reactedByMe = reactedByMe;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReactionChip)) return false;
+            ReactionChip other = (ReactionChip) o;
+            return reactedByMe == other.reactedByMe && emoji.equals(other.emoji) && label.equals(other.label);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(emoji, label, reactedByMe);
+        }
+    }
+
+    // Receipt state of a sent message
+    public static final int RECEIPT_NONE = 0;
+    public static final int RECEIPT_DELIVERED = 1;
+    public static final int RECEIPT_READ = 2;
+
+    public final Message message;
+    public final int viewType;
+    // Laid-out text of text messages, null for images
+    @Nullable public final PrecomputedTextCompat body;
+    public final String statusText;
+    // Set on the first message of each day
+    @Nullable public final String dayLabel;
+    public final List<ReactionChip> reactions;
+    public final int receipt;
+
+    MessageRow(@NonNull Message message, int viewType, @Nullable PrecomputedTextCompat body, @NonNull String statusText,
+               @Nullable String dayLabel, @NonNull List<ReactionChip> reactions, int receipt) {
+        this.message = message;
+        this.viewType = viewType;
+        this.body = body;
+        this.statusText = statusText;
+        this.dayLabel = dayLabel;
+        this.reactions = reactions;
+        this.receipt = receipt;
+    }
+
+    public String getMessageId() {
+        return message.getMessageId();
+    }
+
+    public boolean showsDay() {
+        return dayLabel != null;
+    }
+}
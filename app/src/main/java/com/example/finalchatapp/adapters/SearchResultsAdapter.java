@@ -0,0 +1,125 @@
+package com.example.finalchatapp.adapters;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.finalchatapp.ChatActivity;
+import com.example.finalchatapp.R;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.data.UserProfileRepository;
+import com.example.finalchatapp.models.MessageSearchResult;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+public class SearchResultsAdapter extends RecyclerView.Adapter<SearchResultsAdapter.ViewHolder> {
+
+    private Context context;
+    private List<MessageSearchResult> results = new ArrayList<>();
+    private String currentUserId;
+    private UserProfileRepository profiles;
+    private SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d, h:mm a", Locale.getDefault());
+
+    public SearchResultsAdapter(Context context, String currentUserId) {
+        this.context = context;
+        this.currentUserId = currentUserId;
+        this.profiles = UserProfileRepository.getInstance(context);
+    }
+
+    public void setResults(List<MessageSearchResult> results) {
+        this.results = results;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.item_search_result, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        MessageSearchResult result = results.get(position);
+        String otherUserId = result.getOtherUserId(currentUserId);
+
+        holder.boundUserId = otherUserId;
+        holder.usernameText.setText("");
+        profiles.get(otherUserId, user -> {
+            // The holder may have been rebound to another result while the lookup ran
+            if (!otherUserId.equals(holder.boundUserId)) return;
+
+            String username = user != null ? user.getUsername() : null;
+            holder.usernameText.setText(username != null ? username : "Unknown User");
+        });
+
+        CharSequence snippet = highlightMatches(result.getSnippet());
+        if (currentUserId.equals(result.getSenderId())) {
+            snippet = new SpannableStringBuilder("You: ").append(snippet);
+        }
+        holder.snippetText.setText(snippet);
+        holder.timeText.setText(dateFormat.format(new Date(result.getTimestamp())));
+
+        holder.itemView.setOnClickListener(v -> {
+            Intent intent = new Intent(context, ChatActivity.class);
+            intent.putExtra("userId", otherUserId);
+            intent.putExtra(ChatActivity.EXTRA_MESSAGE_ID, result.getMessageId());
+            intent.putExtra(ChatActivity.EXTRA_MESSAGE_TIMESTAMP, result.getTimestamp());
+            context.startActivity(intent);
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    // Replace the snippet's match markers with bold spans
+    private static CharSequence highlightMatches(String snippet) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        if (snippet == null) return builder;
+
+        int matchStart = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == MessageStore.SNIPPET_MATCH_START) {
+                matchStart = builder.length();
+            } else if (c == MessageStore.SNIPPET_MATCH_END) {
+                if (matchStart >= 0) {
+                    builder.setSpan(new StyleSpan(Typeface.BOLD), matchStart, builder.length(),
+                            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+                matchStart = -1;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder;
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        TextView usernameText, snippetText, timeText;
+        String boundUserId;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            usernameText = itemView.findViewById(R.id.username_text);
+            snippetText = itemView.findViewById(R.id.snippet_text);
+            timeText = itemView.findViewById(R.id.time_text);
+        }
+    }
+}
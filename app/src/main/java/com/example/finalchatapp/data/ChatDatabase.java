@@ -0,0 +1,180 @@
+package com.example.finalchatapp.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Local SQLite database holding the on-device copy of every conversation
+ */
+public class ChatDatabase extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "chat.db";
+    private static final int DATABASE_VERSION = 10;
+
+    static final String TABLE_MESSAGES = "messages";
+    static final String TABLE_CHAT_STATE = "chat_state";
+    static final String TABLE_MESSAGES_FTS = "messages_fts";
+    static final String TABLE_OUTBOX = "outbox";
+    static final String TABLE_UPLOADS = "uploads";
+    static final String TABLE_SYNC_STATE = "sync_state";
+    static final String TABLE_USER_PROFILES = "user_profiles";
+    static final String TABLE_PROCESSED_MESSAGES = "processed_messages";
+    static final String TABLE_NOTIFY_STATE = "notify_state";
+
+    private static volatile ChatDatabase instance;
+
+    public static ChatDatabase getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (ChatDatabase.class) {
+                if (instance == null) {
+                    instance = new ChatDatabase(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ChatDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Readers on the UI path shouldn't wait behind listener writes
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        onUpgrade(db, 0, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Migrations are applied one version at a time so every install ends with the same schema
+        if (oldVersion < 1) {
+            db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                    + "message_id TEXT PRIMARY KEY, "
+                    + "chat_id TEXT NOT NULL, "
+                    + "sender_id TEXT, "
+                    + "receiver_id TEXT, "
+                    + "content TEXT, "
+                    + "image_url TEXT, "
+                    + "type INTEGER NOT NULL DEFAULT 0, "
+                    + "timestamp INTEGER NOT NULL, "
+                    + "seen INTEGER NOT NULL DEFAULT 0, "
+                    + "reactions TEXT)");
+            db.execSQL("CREATE INDEX idx_messages_chat_time ON " + TABLE_MESSAGES + " (chat_id, timestamp)");
+
+            // history_floor: every message of the chat at or after this timestamp is stored locally
+            db.execSQL("CREATE TABLE " + TABLE_CHAT_STATE + " ("
+                    + "chat_id TEXT PRIMARY KEY, "
+                    + "history_floor INTEGER NOT NULL)");
+        }
+
+        if (oldVersion < 2) {
+            // Messages indexed for search outside of a chat's history sync don't count as history
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN in_history INTEGER NOT NULL DEFAULT 1");
+
+            // Full-text index over message text. FTS4 ships with every supported Android version, FTS5 doesn't.
+            // External content keeps a single copy of the text; the triggers below keep it in sync.
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING fts4("
+                    + "content=\"" + TABLE_MESSAGES + "\", content, prefix=\"2,3\", tokenize=unicode61)");
+            db.execSQL("CREATE TRIGGER messages_fts_before_delete BEFORE DELETE ON " + TABLE_MESSAGES + " BEGIN "
+                    + "DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE docid = old.rowid; END");
+            db.execSQL("CREATE TRIGGER messages_fts_before_update BEFORE UPDATE OF content ON " + TABLE_MESSAGES
+                    + " WHEN old.content IS NOT new.content BEGIN "
+                    + "DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE docid = old.rowid; END");
+            db.execSQL("CREATE TRIGGER messages_fts_after_update AFTER UPDATE OF content ON " + TABLE_MESSAGES
+                    + " WHEN old.content IS NOT new.content BEGIN "
+                    + "INSERT INTO " + TABLE_MESSAGES_FTS + " (docid, content) VALUES (new.rowid, new.content); END");
+            db.execSQL("CREATE TRIGGER messages_fts_after_insert AFTER INSERT ON " + TABLE_MESSAGES + " BEGIN "
+                    + "INSERT INTO " + TABLE_MESSAGES_FTS + " (docid, content) VALUES (new.rowid, new.content); END");
+            db.execSQL("INSERT INTO " + TABLE_MESSAGES_FTS + " (" + TABLE_MESSAGES_FTS + ") VALUES ('rebuild')");
+        }
+
+        if (oldVersion < 3) {
+            // Messages written locally but not yet acknowledged by Firestore, flushed by OutboxWorker
+            db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                    + "message_id TEXT PRIMARY KEY, "
+                    + "chat_id TEXT NOT NULL, "
+                    + "sender_id TEXT, "
+                    + "receiver_id TEXT, "
+                    + "content TEXT, "
+                    + "image_url TEXT, "
+                    + "type INTEGER NOT NULL DEFAULT 0, "
+                    + "timestamp INTEGER NOT NULL, "
+                    + "attempts INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX idx_outbox_chat ON " + TABLE_OUTBOX + " (chat_id)");
+        }
+
+        if (oldVersion < 4) {
+            // Thumbnail and original dimensions of image messages
+            for (String table : new String[]{TABLE_MESSAGES, TABLE_OUTBOX}) {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN thumbnail_url TEXT");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN width INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN height INTEGER NOT NULL DEFAULT 0");
+            }
+        }
+
+        if (oldVersion < 5) {
+            // Image uploads still in progress; their message waits in the outbox until both URLs are known
+            db.execSQL("CREATE TABLE " + TABLE_UPLOADS + " ("
+                    + "message_id TEXT PRIMARY KEY, "
+                    + "chat_id TEXT NOT NULL, "
+                    + "full_path TEXT NOT NULL, "
+                    + "thumbnail_path TEXT NOT NULL, "
+                    + "full_session_uri TEXT, "
+                    + "thumbnail_session_uri TEXT, "
+                    + "full_url TEXT, "
+                    + "thumbnail_url TEXT)");
+        }
+
+        if (oldVersion < 6) {
+            // BlurHash placeholder of image messages
+            for (String table : new String[]{TABLE_MESSAGES, TABLE_OUTBOX}) {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN placeholder_hash TEXT");
+            }
+        }
+
+        if (oldVersion < 7) {
+            // Per-chat sequence number, 0 for messages sent before sequences existed
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN seq INTEGER NOT NULL DEFAULT 0");
+
+            // high_water_seq: highest sequence of the chat's stored, gap-free history
+            db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                    + "chat_id TEXT PRIMARY KEY, "
+                    + "high_water_seq INTEGER NOT NULL)");
+        }
+
+        if (oldVersion < 8) {
+            // Disk tier of UserProfileRepository; fetched_at drives revalidation
+            db.execSQL("CREATE TABLE " + TABLE_USER_PROFILES + " ("
+                    + "user_id TEXT PRIMARY KEY, "
+                    + "username TEXT, "
+                    + "email TEXT, "
+                    + "profile_image_url TEXT, "
+                    + "status TEXT, "
+                    + "fetched_at INTEGER NOT NULL)");
+        }
+
+        if (oldVersion < 9) {
+            // Messages already notified about, grouped into the buckets of ProcessedMessageIds
+            db.execSQL("CREATE TABLE " + TABLE_PROCESSED_MESSAGES + " ("
+                    + "message_id TEXT PRIMARY KEY, "
+                    + "bucket INTEGER NOT NULL, "
+                    + "processed_at INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX idx_processed_bucket ON " + TABLE_PROCESSED_MESSAGES + " (bucket)");
+        }
+
+        if (oldVersion < 10) {
+            // notified_timestamp: the background check has seen every message of the chat up to this time
+            db.execSQL("CREATE TABLE " + TABLE_NOTIFY_STATE + " ("
+                    + "chat_id TEXT PRIMARY KEY, "
+                    + "notified_timestamp INTEGER NOT NULL)");
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.finalchatapp.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.finalchatapp.AppExecutors;
+import com.example.finalchatapp.models.Message;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Windowed loader for the history of a single chat.
+ * The chat opens from the local MessageStore, then one live listener on the newest PAGE_SIZE messages
+ * streams deltas into the store. Older pages come from the store when it holds them and from
+ * startAfter cursor queries otherwise, so opening a long chat costs the same as a short one.
+ * When the live window no longer follows on from the stored high-water sequence, e.g. after being offline,
+ * exactly the missing sequence range is fetched so the stored history stays gap-free.
+ */
+public class ChatHistoryPager {
+    private static final String TAG = "ChatHistoryPager";
+
+    // Size of the live window and of every older page
+    public static final int PAGE_SIZE = 50;
+
+    // Larger gaps are left to regular paging instead of one big fetch
+    private static final int MAX_GAP_FILL = 500;
+
+    private static final Comparator<Message> BY_TIMESTAMP = (a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp());
+
+    public interface Callback {
+        // Changes inside the live window; added messages are ordered oldest first
+        void onLiveChanges(@NonNull List<Message> added, @NonNull List<Message> modified,
+                           @NonNull List<Message> removed);
+
+        // A page of older history, oldest first
+        void onOlderMessages(@NonNull List<Message> messages, boolean reachedStart);
+
+        void onLoadingOlderChanged(boolean loading);
+
+        // The server confirmed the live window for the first time, whether or not anything changed
+        void onLiveWindowSynced();
+
+        void onError(@NonNull Exception e);
+    }
+
+    private final CollectionReference messagesRef;
+    private final MessageStore messageStore;
+    private final String chatId;
+    private final Callback callback;
+
+    private ListenerRegistration liveRegistration;
+
+    private boolean loadingOlder = false;
+    private boolean reachedStart = false;
+    private boolean liveWindowSynced = false;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    // Highest sequence of the gap-free stored history, as far as this pager knows
+    private long highWaterSeq = 0;
+    private boolean fillingGap = false;
+    // Window snapshots waiting for the gap fill, so the store sees them in order
+    private final List<Runnable> deferredPersists = new ArrayList<>();
+
+    public ChatHistoryPager(@NonNull FirebaseFirestore db, @NonNull MessageStore messageStore,
+                            @NonNull String chatId, @NonNull Callback callback) {
+        this.messagesRef = db.collection("chats").document(chatId).collection("messages");
+        this.messageStore = messageStore;
+        this.chatId = chatId;
+        this.callback = callback;
+    }
+
+    /**
+     * Show the locally stored tail of the chat, then attach the live listener on the newest messages
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        AppExecutors.diskIO().execute(() -> {
+            List<Message> cached = messageStore.loadLatest(chatId, PAGE_SIZE);
+            // Messages still in the outbox are shown as pending after the stored history
+            cached.addAll(messageStore.loadPendingMessages(chatId));
+            long storedHighWater = messageStore.getHighWaterSeq(chatId);
+            AppExecutors.runOnMain(() -> {
+                if (stopped) return;
+
+                highWaterSeq = storedHighWater;
+
+                if (!cached.isEmpty()) {
+                    Log.d(TAG, "Opened chat with " + cached.size() + " locally stored messages");
+                    callback.onLiveChanges(cached, new ArrayList<>(), new ArrayList<>());
+                }
+                attachLiveListener();
+            });
+        });
+    }
+
+    private void attachLiveListener() {
+        Query window = messagesRef
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .limit(PAGE_SIZE);
+        // Metadata changes included: when the cache already matches the server, the only sign of being
+        // in sync is a snapshot that flips isFromCache without changing any document
+        liveRegistration = SnapshotDispatcher.listen(window, MetadataChanges.INCLUDE, ChatHistoryPager::parseLiveWindow,
+                new SnapshotDispatcher.Receiver<LiveWindow>() {
+                    @Override
+                    public void onParsed(@NonNull LiveWindow parsed) {
+                        onLiveWindow(parsed);
+                    }
+
+                    @Override
+                    public void onError(@NonNull FirebaseFirestoreException error) {
+                        if (stopped) return;
+                        Log.e(TAG, "Live window listener failed", error);
+                        callback.onError(error);
+                    }
+                });
+    }
+
+    // One live window snapshot, parsed off the main thread
+    private static class LiveWindow {
+        final List<Message> added = new ArrayList<>();
+        final List<Message> modified = new ArrayList<>();
+        final List<Message> removed = new ArrayList<>();
+        boolean fromCache;
+        boolean windowComplete;
+        Message windowOldest;
+        Long newestSeq;
+    }
+
+    private static LiveWindow parseLiveWindow(@NonNull QuerySnapshot snapshots) {
+        LiveWindow window = new LiveWindow();
+        List<DocumentSnapshot> documents = snapshots.getDocuments();
+        window.fromCache = snapshots.getMetadata().isFromCache();
+
+        // Other metadata-only snapshots, e.g. pending writes settling, change nothing here
+        if (window.fromCache && snapshots.getDocumentChanges().isEmpty()) {
+            return null;
+        }
+
+        // A short server snapshot means the whole history fits in the window.
+        // Cached snapshots can be partial, so they never end paging.
+        window.windowComplete = !window.fromCache && documents.size() < PAGE_SIZE;
+
+        for (DocumentChange dc : snapshots.getDocumentChanges()) {
+            switch (dc.getType()) {
+                case ADDED:
+                    window.added.add(dc.getDocument().toObject(Message.class));
+                    break;
+                case MODIFIED:
+                    window.modified.add(dc.getDocument().toObject(Message.class));
+                    break;
+                case REMOVED:
+                    // Messages pushed out of the window by newer ones are still part of the chat
+                    if (!isWindowSlide(dc.getDocument(), documents)) {
+                        window.removed.add(dc.getDocument().toObject(Message.class));
+                    }
+                    break;
+            }
+        }
+        Collections.sort(window.added, BY_TIMESTAMP);
+
+        if (!window.fromCache && !documents.isEmpty()) {
+            window.windowOldest = documents.get(documents.size() - 1).toObject(Message.class);
+            window.newestSeq = documents.get(0).getLong("seq");
+        }
+        return window;
+    }
+
+    private void onLiveWindow(LiveWindow window) {
+        if (stopped) return;
+
+        boolean justSynced = !window.fromCache && !liveWindowSynced;
+        if (!window.fromCache) {
+            liveWindowSynced = true;
+        }
+        if (window.windowComplete) {
+            reachedStart = true;
+        }
+
+        Message windowOldest = window.windowOldest;
+        if (windowOldest != null) {
+            long gap = windowOldest.getSeq() - highWaterSeq - 1;
+            if (!fillingGap && highWaterSeq > 0 && gap > 0 && gap <= MAX_GAP_FILL) {
+                fillGap(highWaterSeq, windowOldest.getSeq());
+            }
+            if (window.newestSeq != null) {
+                highWaterSeq = Math.max(highWaterSeq, window.newestSeq);
+            }
+        }
+
+        if (fillingGap) {
+            deferredPersists.add(() -> persistLiveWindow(window.added, window.modified, window.removed,
+                    windowOldest, window.windowComplete));
+        } else {
+            persistLiveWindow(window.added, window.modified, window.removed, windowOldest, window.windowComplete);
+        }
+
+        if (!window.added.isEmpty() || !window.modified.isEmpty() || !window.removed.isEmpty()) {
+            callback.onLiveChanges(window.added, window.modified, window.removed);
+        }
+        if (justSynced) {
+            callback.onLiveWindowSynced();
+        }
+    }
+
+    /**
+     * Fetch the messages from fromSeq, the stored high-water mark, up to but excluding toSeq.
+     * The high-water message itself is included so the store can see the range joins its history.
+     */
+    private void fillGap(long fromSeq, long toSeq) {
+        fillingGap = true;
+        messagesRef
+                .whereGreaterThanOrEqualTo("seq", fromSeq)
+                .whereLessThan("seq", toSeq)
+                .orderBy("seq")
+                .get()
+                .addOnSuccessListener(page -> {
+                    if (stopped) return;
+
+                    List<Message> missing = new ArrayList<>(page.size());
+                    for (DocumentSnapshot doc : page.getDocuments()) {
+                        Message message = doc.toObject(Message.class);
+                        if (message != null) {
+                            missing.add(message);
+                        }
+                    }
+
+                    Log.d(TAG, "Filled gap of sequences " + fromSeq + ".." + (toSeq - 1) + " with "
+                            + missing.size() + " messages");
+
+                    if (!page.getMetadata().isFromCache() && !missing.isEmpty()) {
+                        persistLiveWindow(missing, new ArrayList<>(), new ArrayList<>(), missing.get(0), false);
+                    }
+                    finishGapFill();
+                    if (!missing.isEmpty()) {
+                        callback.onLiveChanges(missing, new ArrayList<>(), new ArrayList<>());
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    if (stopped) return;
+
+                    // The window is stored as before, and paging fetches the gap by timestamp instead
+                    Log.e(TAG, "Failed to fill sequence gap", e);
+                    finishGapFill();
+                });
+    }
+
+    private void finishGapFill() {
+        fillingGap = false;
+        for (Runnable persist : deferredPersists) {
+            persist.run();
+        }
+        deferredPersists.clear();
+    }
+
+    /**
+     * Load the page of messages right before oldest, the oldest one currently shown.
+     * Reads the local store first and only goes to the network for what it doesn't hold.
+     * Safe to call repeatedly while scrolling; concurrent calls are ignored.
+     */
+    public void loadOlder(@NonNull Message oldest) {
+        if (stopped || !started || loadingOlder || reachedStart) {
+            return;
+        }
+
+        setLoadingOlder(true);
+
+        AppExecutors.diskIO().execute(() -> {
+            MessageStore.LocalPage localPage = messageStore.loadBefore(chatId, oldest.getTimestamp(),
+                    oldest.getMessageId(), PAGE_SIZE);
+            AppExecutors.runOnMain(() -> {
+                if (stopped) return;
+
+                if (!localPage.needsNetwork) {
+                    reachedStart = localPage.reachedStart;
+                    setLoadingOlder(false);
+                    callback.onOlderMessages(localPage.messages, reachedStart);
+                    return;
+                }
+
+                // Show what the store has and fetch the remainder from the server
+                Message networkBefore = oldest;
+                if (!localPage.messages.isEmpty()) {
+                    callback.onOlderMessages(localPage.messages, false);
+                    networkBefore = localPage.messages.get(0);
+                }
+                fetchOlderFromNetwork(networkBefore);
+            });
+        });
+    }
+
+    /**
+     * Ordered by timestamp and then id, the same order as everywhere else, so messages sharing
+     * the boundary timestamp are neither skipped nor loaded twice
+     */
+    private void fetchOlderFromNetwork(Message before) {
+        messagesRef
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING)
+                .startAfter(before.getTimestamp(), before.getMessageId())
+                .limit(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(page -> {
+                    if (stopped) return;
+
+                    List<DocumentSnapshot> documents = page.getDocuments();
+                    List<Message> older = new ArrayList<>(documents.size());
+                    for (DocumentSnapshot doc : documents) {
+                        Message message = doc.toObject(Message.class);
+                        if (message != null) {
+                            older.add(message);
+                        }
+                    }
+                    Collections.reverse(older);
+
+                    boolean pageReachedStart = !page.getMetadata().isFromCache() && documents.size() < PAGE_SIZE;
+                    reachedStart = pageReachedStart;
+
+                    Log.d(TAG, "Loaded " + older.size() + " older messages, reached start: " + reachedStart);
+
+                    if (!page.getMetadata().isFromCache()) {
+                        AppExecutors.diskIO().execute(() ->
+                                messageStore.applyOlderPage(chatId, older, pageReachedStart));
+                    }
+
+                    setLoadingOlder(false);
+                    callback.onOlderMessages(older, reachedStart);
+                })
+                .addOnFailureListener(e -> {
+                    if (stopped) return;
+
+                    Log.e(TAG, "Failed to load older messages", e);
+                    setLoadingOlder(false);
+                    callback.onError(e);
+                });
+    }
+
+    /**
+     * The caller dropped its oldest messages from memory, so paging back has to load them again
+     */
+    public void onOldestEvicted() {
+        reachedStart = false;
+    }
+
+    public boolean isLoadingOlder() {
+        return loadingOlder;
+    }
+
+    public boolean hasReachedStart() {
+        return reachedStart;
+    }
+
+    // True once the live window has been confirmed by the server, not just the cache
+    public boolean isLiveWindowSynced() {
+        return liveWindowSynced;
+    }
+
+    /**
+     * Detach the live listener and drop any in-flight page results
+     */
+    public void stop() {
+        stopped = true;
+        if (liveRegistration != null) {
+            liveRegistration.remove();
+            liveRegistration = null;
+        }
+    }
+
+    private void persistLiveWindow(List<Message> added, List<Message> modified, List<Message> removed,
+                                   Message windowOldest, boolean windowComplete) {
+        List<Message> upserts = new ArrayList<>(added.size() + modified.size());
+        upserts.addAll(added);
+        upserts.addAll(modified);
+
+        List<String> removedIds = new ArrayList<>(removed.size());
+        for (Message message : removed) {
+            removedIds.add(message.getMessageId());
+        }
+
+        if (upserts.isEmpty() && removedIds.isEmpty() && windowOldest == null) {
+            return;
+        }
+
+        AppExecutors.diskIO().execute(() ->
+                messageStore.applyLiveWindow(chatId, upserts, removedIds, windowOldest, windowComplete));
+    }
+
+    /**
+     * A full window drops its oldest document whenever a newer one arrives.
+     * Such a document is at or before the new oldest entry, while a real deletion is not.
+     */
+    private static boolean isWindowSlide(DocumentSnapshot removedDoc, List<DocumentSnapshot> window) {
+        if (window.size() < PAGE_SIZE) {
+            return false;
+        }
+
+        Long removedTimestamp = removedDoc.getLong("timestamp");
+        Long windowOldest = window.get(window.size() - 1).getLong("timestamp");
+        return removedTimestamp != null && windowOldest != null && removedTimestamp <= windowOldest;
+    }
+
+    private void setLoadingOlder(boolean loading) {
+        if (loadingOlder == loading) return;
+        loadingOlder = loading;
+        callback.onLoadingOlderChanged(loading);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.finalchatapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.finalchatapp.models.Message;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The messages of one open conversation, kept in (timestamp, messageId) order with an id index.
+ * Upserts deduplicate by id and land in their sorted position via binary search, so late or out-of-order
+ * arrivals are placed correctly. Looking a message up by id is a hash lookup plus a binary search.
+ * The oldest range can be evicted to bound memory; it is read back from the local store when scrolled to.
+ * Read-only as a List: all changes go through the methods below. Not thread-safe, use on the main thread.
+ */
+public class ConversationBuffer extends AbstractList<Message> implements RandomAccess {
+
+    static final Comparator<Message> ORDER = (a, b) -> {
+        int byTime = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return byTime != 0 ? byTime : a.getMessageId().compareTo(b.getMessageId());
+    };
+
+    private final ArrayList<Message> messages = new ArrayList<>();
+    private final Map<String, Message> byId = new HashMap<>();
+
+    @Override
+    public Message get(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public int size() {
+        return messages.size();
+    }
+
+    @NonNull
+    @Override
+    public Object[] toArray() {
+        return messages.toArray();
+    }
+
+    public boolean containsId(@NonNull String messageId) {
+        return byId.containsKey(messageId);
+    }
+
+    @Nullable
+    public Message getById(@NonNull String messageId) {
+        return byId.get(messageId);
+    }
+
+    /**
+     * Position of the message with this id, or -1
+     */
+    public int indexOfId(@NonNull String messageId) {
+        Message message = byId.get(messageId);
+        return message != null ? Collections.binarySearch(messages, message, ORDER) : -1;
+    }
+
+    /**
+     * Insert the message, or replace the one with the same id, keeping the order.
+     * Returns its position.
+     */
+    public int upsert(@NonNull Message message) {
+        Message existing = byId.put(message.getMessageId(), message);
+        if (existing != null) {
+            int index = Collections.binarySearch(messages, existing, ORDER);
+            if (existing.getTimestamp() == message.getTimestamp()) {
+                messages.set(index, message);
+                return index;
+            }
+            messages.remove(index);
+        }
+
+        int index = insertionPoint(message);
+        messages.add(index, message);
+        return index;
+    }
+
+    /**
+     * Upsert a batch. A page of history older than everything buffered is prepended in one move.
+     */
+    public void upsertAll(@NonNull Collection<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Last copy wins when the batch repeats an id
+        Map<String, Message> unique = new HashMap<>(batch.size() * 2);
+        boolean overlapsBuffer = false;
+        for (Message message : batch) {
+            unique.put(message.getMessageId(), message);
+            overlapsBuffer |= byId.containsKey(message.getMessageId());
+        }
+        List<Message> sorted = new ArrayList<>(unique.values());
+        Collections.sort(sorted, ORDER);
+
+        if (!overlapsBuffer
+                && (messages.isEmpty() || ORDER.compare(sorted.get(sorted.size() - 1), messages.get(0)) < 0)) {
+            byId.putAll(unique);
+            messages.addAll(0, sorted);
+            return;
+        }
+
+        for (Message message : sorted) {
+            upsert(message);
+        }
+    }
+
+    @Nullable
+    public Message removeById(@NonNull String messageId) {
+        Message existing = byId.remove(messageId);
+        if (existing != null) {
+            messages.remove(Collections.binarySearch(messages, existing, ORDER));
+        }
+        return existing;
+    }
+
+    /**
+     * Drop up to count of the oldest messages. Returns how many were dropped.
+     */
+    public int evictOldest(int count) {
+        int evicted = Math.max(0, Math.min(count, messages.size()));
+        if (evicted == 0) {
+            return 0;
+        }
+
+        List<Message> range = messages.subList(0, evicted);
+        for (Message message : range) {
+            byId.remove(message.getMessageId());
+        }
+        range.clear();
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        messages.clear();
+        byId.clear();
+    }
+
+    private int insertionPoint(Message message) {
+        // Appending is by far the common case
+        int size = messages.size();
+        if (size == 0 || ORDER.compare(messages.get(size - 1), message) < 0) {
+            return size;
+        }
+
+        int index = Collections.binarySearch(messages, message, ORDER);
+        return index >= 0 ? index : -(index + 1);
+    }
+}
@@ -0,0 +1,756 @@
+package com.example.finalchatapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.models.MessageSearchResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-device message store, the source the chat screen reads history from.
+ * Firestore listeners stream deltas in; the UI reads pages with indexed range scans on (chat_id, timestamp).
+ * All methods hit the disk and must be called off the main thread.
+ */
+public class MessageStore {
+    private static final String TAG = "MessageStore";
+
+    // history_floor value meaning the whole chat, back to its first message, is stored
+    private static final long FLOOR_COMPLETE = 0L;
+
+    private static final String[] MESSAGE_COLUMNS = {
+            "message_id", "sender_id", "receiver_id", "content", "image_url",
+            "type", "timestamp", "seen", "reactions", "thumbnail_url", "width", "height",
+            "placeholder_hash", "seq"
+    };
+
+    // chat_id comes last so readOutboxMessage can read the message fields from index 0
+    private static final String[] OUTBOX_COLUMNS = {
+            "message_id", "sender_id", "receiver_id", "content", "image_url",
+            "type", "timestamp", "thumbnail_url", "width", "height", "placeholder_hash", "attempts", "chat_id"
+    };
+
+    // Markers wrapped around matched terms in search snippets
+    public static final char SNIPPET_MATCH_START = '\u0002';
+    public static final char SNIPPET_MATCH_END = '\u0003';
+
+    // The newest matches are picked first, so snippet() only runs for the rows actually returned
+    private static final String SEARCH_QUERY = "SELECT m.message_id, m.chat_id, m.sender_id, m.receiver_id, m.timestamp, "
+            + "snippet(" + ChatDatabase.TABLE_MESSAGES_FTS + ", '" + SNIPPET_MATCH_START + "', '" + SNIPPET_MATCH_END
+            + "', '…', -1, 12) "
+            + "FROM " + ChatDatabase.TABLE_MESSAGES_FTS + " JOIN " + ChatDatabase.TABLE_MESSAGES + " m "
+            + "ON m.rowid = " + ChatDatabase.TABLE_MESSAGES_FTS + ".docid "
+            + "WHERE " + ChatDatabase.TABLE_MESSAGES_FTS + " MATCH ? "
+            + "AND " + ChatDatabase.TABLE_MESSAGES_FTS + ".docid IN ("
+            + "SELECT newest.rowid FROM " + ChatDatabase.TABLE_MESSAGES_FTS + " JOIN " + ChatDatabase.TABLE_MESSAGES + " newest "
+            + "ON newest.rowid = " + ChatDatabase.TABLE_MESSAGES_FTS + ".docid "
+            + "WHERE " + ChatDatabase.TABLE_MESSAGES_FTS + " MATCH ? "
+            + "ORDER BY newest.timestamp DESC LIMIT ?) "
+            + "ORDER BY m.timestamp DESC";
+
+    private static volatile MessageStore instance;
+
+    private final ChatDatabase database;
+
+    public static MessageStore getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (MessageStore.class) {
+                if (instance == null) {
+                    instance = new MessageStore(ChatDatabase.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private MessageStore(ChatDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Result of a local page read
+     */
+    public static class LocalPage {
+        // Oldest first
+        public final List<Message> messages;
+        // True when the page goes back to the first message of the chat
+        public final boolean reachedStart;
+        // True when the store may be missing older messages that only the server has
+        public final boolean needsNetwork;
+
+        LocalPage(List<Message> messages, boolean reachedStart, boolean needsNetwork) {
+            this.messages = messages;
+            this.reachedStart = reachedStart;
+            this.needsNetwork = needsNetwork;
+        }
+    }
+
+    /**
+     * Insert or replace messages without touching the chat's history floor
+     */
+    @WorkerThread
+    public void upsertMessages(@NonNull String chatId, @NonNull List<Message> messages) {
+        if (messages.isEmpty()) return;
+
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                insertOrReplace(db, chatId, message);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Make messages seen outside of an open chat, e.g. by the notification listener, searchable.
+     * They don't become part of the chat's history, and stored history rows are left untouched.
+     */
+    @WorkerThread
+    public void indexMessages(@NonNull String chatId, @NonNull List<Message> messages) {
+        if (messages.isEmpty()) return;
+
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                if (message.getMessageId() == null) continue;
+
+                ContentValues values = toContentValues(chatId, message);
+                values.put("in_history", 0);
+                db.insertWithOnConflict(ChatDatabase.TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Apply one snapshot of the live window.
+     * windowOldest is the oldest message of a server snapshot, or null for cached snapshots.
+     * When it isn't already stored inside the trusted range and doesn't directly follow the high-water
+     * sequence, there may be a gap right before the window, so older local rows are no longer trusted
+     * until network pages fill it. Either way the trusted range then ends at the window's newest sequence.
+     */
+    @WorkerThread
+    public void applyLiveWindow(@NonNull String chatId, @NonNull List<Message> upserts,
+                                @NonNull List<String> removedIds, @Nullable Message windowOldest,
+                                boolean windowComplete) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (windowComplete) {
+                setHistoryFloor(db, chatId, FLOOR_COMPLETE);
+            } else if (windowOldest != null) {
+                Long floor = getHistoryFloor(db, chatId);
+                long highWater = getHighWaterSeq(db, chatId);
+                boolean continuesSequence = highWater > 0
+                        && windowOldest.getSeq() > 0
+                        && windowOldest.getSeq() <= highWater + 1;
+                boolean overlaps = floor != null
+                        && (continuesSequence || (windowOldest.getTimestamp() >= floor
+                                && containsMessage(db, windowOldest.getMessageId())));
+                if (!overlaps) {
+                    setHistoryFloor(db, chatId, windowOldest.getTimestamp());
+                }
+            }
+
+            long newestSeq = windowOldest != null ? windowOldest.getSeq() : 0;
+            for (Message message : upserts) {
+                insertOrReplace(db, chatId, message);
+                newestSeq = Math.max(newestSeq, message.getSeq());
+            }
+            if (windowOldest != null && newestSeq > getHighWaterSeq(db, chatId)) {
+                setHighWaterSeq(db, chatId, newestSeq);
+            }
+            for (String messageId : removedIds) {
+                db.delete(ChatDatabase.TABLE_MESSAGES, "message_id = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Store an older page fetched from the server. The page continues the trusted range downwards,
+     * so the history floor moves to its oldest message.
+     */
+    @WorkerThread
+    public void applyOlderPage(@NonNull String chatId, @NonNull List<Message> page, boolean reachedStart) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : page) {
+                insertOrReplace(db, chatId, message);
+            }
+
+            Long floor = getHistoryFloor(db, chatId);
+            if (reachedStart) {
+                setHistoryFloor(db, chatId, FLOOR_COMPLETE);
+            } else if (!page.isEmpty()) {
+                long pageOldest = page.get(0).getTimestamp();
+                if (floor == null || pageOldest < floor) {
+                    setHistoryFloor(db, chatId, pageOldest);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Highest sequence up to which the stored history of the chat has no gaps, or 0 when unknown
+     */
+    @WorkerThread
+    public long getHighWaterSeq(@NonNull String chatId) {
+        return getHighWaterSeq(database.getReadableDatabase(), chatId);
+    }
+
+    /**
+     * Notification marks of the chats that have one: everything up to the mark was already checked
+     */
+    @WorkerThread
+    @NonNull
+    public Map<String, Long> getNotifiedTimestamps(@NonNull List<String> chatIds) {
+        Map<String, Long> marks = new HashMap<>();
+        if (chatIds.isEmpty()) {
+            return marks;
+        }
+
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < chatIds.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_NOTIFY_STATE,
+                new String[]{"chat_id", "notified_timestamp"}, "chat_id IN (" + placeholders + ")",
+                chatIds.toArray(new String[0]), null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                marks.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return marks;
+    }
+
+    /**
+     * Move the chat's notification mark forward to timestamp; it never moves back
+     */
+    @WorkerThread
+    public void advanceNotifiedTimestamp(@NonNull String chatId, long timestamp) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("chat_id", chatId);
+            values.put("notified_timestamp", timestamp);
+            if (db.insertWithOnConflict(ChatDatabase.TABLE_NOTIFY_STATE, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+                db.update(ChatDatabase.TABLE_NOTIFY_STATE, values, "chat_id = ? AND notified_timestamp < ?",
+                        new String[]{chatId, String.valueOf(timestamp)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Newest messages of the chat, oldest first
+     */
+    @WorkerThread
+    @NonNull
+    public List<Message> loadLatest(@NonNull String chatId, int limit) {
+        SQLiteDatabase db = database.getReadableDatabase();
+        Long floor = getHistoryFloor(db, chatId);
+        if (floor == null) {
+            return new ArrayList<>();
+        }
+
+        return queryDescending(db, "chat_id = ? AND in_history = 1 AND timestamp >= ?",
+                new String[]{chatId, String.valueOf(floor)}, limit);
+    }
+
+    /**
+     * Page of messages strictly before the given one in (timestamp, message_id) order, limited to the trusted range
+     */
+    @WorkerThread
+    @NonNull
+    public LocalPage loadBefore(@NonNull String chatId, long beforeTimestamp, @NonNull String beforeMessageId, int limit) {
+        SQLiteDatabase db = database.getReadableDatabase();
+        Long floor = getHistoryFloor(db, chatId);
+        if (floor == null) {
+            return new LocalPage(new ArrayList<>(), false, true);
+        }
+
+        String before = String.valueOf(beforeTimestamp);
+        List<Message> messages = queryDescending(db, "chat_id = ? AND in_history = 1 "
+                        + "AND (timestamp < ? OR (timestamp = ? AND message_id < ?)) AND timestamp >= ?",
+                new String[]{chatId, before, before, beforeMessageId, String.valueOf(floor)}, limit);
+
+        boolean full = messages.size() >= limit;
+        boolean complete = floor == FLOOR_COMPLETE;
+        return new LocalPage(messages, !full && complete, !full && !complete);
+    }
+
+    /**
+     * Full-text search across every stored conversation, newest matches first.
+     * Every word of the query is matched as a prefix, so "hel wor" finds "hello world".
+     */
+    @WorkerThread
+    @NonNull
+    public List<MessageSearchResult> search(@NonNull String query, int limit) {
+        List<MessageSearchResult> results = new ArrayList<>();
+        String matchExpression = buildMatchExpression(query);
+        if (matchExpression == null) {
+            return results;
+        }
+
+        Cursor cursor = database.getReadableDatabase().rawQuery(SEARCH_QUERY,
+                new String[]{matchExpression, matchExpression, String.valueOf(limit)});
+        try {
+            while (cursor.moveToNext()) {
+                results.add(new MessageSearchResult(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getLong(4),
+                        cursor.getString(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return results;
+    }
+
+    /**
+     * Turn free text into an FTS MATCH expression of prefix terms.
+     * Anything but letters and digits is dropped so user input can't inject FTS syntax.
+     */
+    @Nullable
+    static String buildMatchExpression(String query) {
+        StringBuilder expression = new StringBuilder();
+        for (String word : query.split("\\s+")) {
+            StringBuilder term = new StringBuilder();
+            for (int i = 0; i < word.length(); ) {
+                int codePoint = word.codePointAt(i);
+                if (Character.isLetterOrDigit(codePoint)) {
+                    term.appendCodePoint(codePoint);
+                }
+                i += Character.charCount(codePoint);
+            }
+
+            if (term.length() > 0) {
+                if (expression.length() > 0) expression.append(' ');
+                expression.append(term).append('*');
+            }
+        }
+        return expression.length() > 0 ? expression.toString() : null;
+    }
+
+    /**
+     * Queue a message for sending. It survives process death until OutboxWorker gets it acknowledged.
+     */
+    @WorkerThread
+    public void enqueueOutgoing(@NonNull String chatId, @NonNull Message message) {
+        ContentValues values = new ContentValues();
+        values.put("chat_id", chatId);
+        putMessageFields(values, message);
+        database.getWritableDatabase().insertWithOnConflict(ChatDatabase.TABLE_OUTBOX, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Messages still waiting in the outbox for one chat, oldest first and marked pending
+     */
+    @WorkerThread
+    @NonNull
+    public List<Message> loadPendingMessages(@NonNull String chatId) {
+        return queryOutbox("chat_id = ?", new String[]{chatId}, null);
+    }
+
+    /**
+     * Oldest queued messages across all chats, for the next batch
+     */
+    @WorkerThread
+    @NonNull
+    public List<OutgoingMessage> loadOutboxBatch(int limit) {
+        List<OutgoingMessage> batch = new ArrayList<>();
+        // Image messages stay queued until their upload has finished
+        Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_OUTBOX, OUTBOX_COLUMNS,
+                "message_id NOT IN (SELECT message_id FROM " + ChatDatabase.TABLE_UPLOADS + ")",
+                null, null, null, "timestamp ASC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                batch.add(new OutgoingMessage(cursor.getString(OUTBOX_COLUMNS.length - 1), readOutboxMessage(cursor),
+                        cursor.getInt(OUTBOX_COLUMNS.length - 2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return batch;
+    }
+
+    @WorkerThread
+    public void removeFromOutbox(@NonNull List<String> messageIds) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(ChatDatabase.TABLE_OUTBOX, "message_id = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @WorkerThread
+    public void recordOutboxAttempt(@NonNull List<String> messageIds) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.execSQL("UPDATE " + ChatDatabase.TABLE_OUTBOX + " SET attempts = attempts + 1 WHERE message_id = ?",
+                        new Object[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Queued message together with the chat it belongs to
+     */
+    public static class OutgoingMessage {
+        public final String chatId;
+        public final Message message;
+        // Failed sends so far; a send that timed out may still have reached Firestore
+        public final int attempts;
+
+        OutgoingMessage(String chatId, Message message, int attempts) {
+            this.chatId = chatId;
+            this.message = message;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Queue an image message whose files still have to be uploaded.
+     * The message shows as pending right away but is only sent once completeUpload fills in its URLs.
+     */
+    @WorkerThread
+    public void enqueueImageUpload(@NonNull String chatId, @NonNull Message message,
+                                   @NonNull String fullPath, @NonNull String thumbnailPath) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues upload = new ContentValues();
+            upload.put("message_id", message.getMessageId());
+            upload.put("chat_id", chatId);
+            upload.put("full_path", fullPath);
+            upload.put("thumbnail_path", thumbnailPath);
+            db.insertWithOnConflict(ChatDatabase.TABLE_UPLOADS, null, upload, SQLiteDatabase.CONFLICT_REPLACE);
+
+            ContentValues values = new ContentValues();
+            values.put("chat_id", chatId);
+            putMessageFields(values, message);
+            db.insertWithOnConflict(ChatDatabase.TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    public PendingUpload loadUpload(@NonNull String messageId) {
+        Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_UPLOADS,
+                new String[]{"chat_id", "full_path", "thumbnail_path", "full_session_uri",
+                        "thumbnail_session_uri", "full_url", "thumbnail_url"},
+                "message_id = ?", new String[]{messageId}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new PendingUpload(messageId, cursor.getString(0),
+                    new PendingUpload.Part(PendingUpload.PART_FULL, cursor.getString(1), cursor.getString(3), cursor.getString(5)),
+                    new PendingUpload.Part(PendingUpload.PART_THUMBNAIL, cursor.getString(2), cursor.getString(4), cursor.getString(6)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remember the resumable session of a running upload, or clear it with null
+     */
+    @WorkerThread
+    public void saveUploadSession(@NonNull String messageId, @NonNull String part, @Nullable String sessionUri) {
+        ContentValues values = new ContentValues();
+        values.put(part + "_session_uri", sessionUri);
+        database.getWritableDatabase().update(ChatDatabase.TABLE_UPLOADS, values,
+                "message_id = ?", new String[]{messageId});
+    }
+
+    @WorkerThread
+    public void saveUploadUrl(@NonNull String messageId, @NonNull String part, @NonNull String downloadUrl) {
+        ContentValues values = new ContentValues();
+        values.put(part + "_url", downloadUrl);
+        values.putNull(part + "_session_uri");
+        database.getWritableDatabase().update(ChatDatabase.TABLE_UPLOADS, values,
+                "message_id = ?", new String[]{messageId});
+    }
+
+    /**
+     * Point the queued message at the uploaded files and release it to the outbox
+     */
+    @WorkerThread
+    public void completeUpload(@NonNull String messageId, @NonNull String fullUrl, @NonNull String thumbnailUrl) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("image_url", fullUrl);
+            values.put("thumbnail_url", thumbnailUrl);
+            db.update(ChatDatabase.TABLE_OUTBOX, values, "message_id = ?", new String[]{messageId});
+            db.delete(ChatDatabase.TABLE_UPLOADS, "message_id = ?", new String[]{messageId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drop an upload that can never finish, along with its queued message
+     */
+    @WorkerThread
+    public void cancelUpload(@NonNull String messageId) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(ChatDatabase.TABLE_OUTBOX, "message_id = ?", new String[]{messageId});
+            db.delete(ChatDatabase.TABLE_UPLOADS, "message_id = ?", new String[]{messageId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private List<Message> queryOutbox(String selection, String[] args, String limit) {
+        List<Message> messages = new ArrayList<>();
+        Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_OUTBOX, OUTBOX_COLUMNS,
+                selection, args, null, null, "timestamp ASC", limit);
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(readOutboxMessage(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+
+    private static Message readOutboxMessage(Cursor cursor) {
+        Message message = new Message();
+        message.setMessageId(cursor.getString(0));
+        message.setSenderId(cursor.getString(1));
+        message.setReceiverId(cursor.getString(2));
+        message.setContent(cursor.getString(3));
+        message.setImageUrl(cursor.getString(4));
+        message.setType(cursor.getInt(5));
+        message.setTimestamp(cursor.getLong(6));
+        message.setThumbnailUrl(cursor.getString(7));
+        message.setWidth(cursor.getInt(8));
+        message.setHeight(cursor.getInt(9));
+        message.setPlaceholderHash(cursor.getString(10));
+        message.setPending(true);
+        return message;
+    }
+
+    @WorkerThread
+    public void deleteMessage(@NonNull String messageId) {
+        database.getWritableDatabase().delete(ChatDatabase.TABLE_MESSAGES,
+                "message_id = ?", new String[]{messageId});
+    }
+
+    private List<Message> queryDescending(SQLiteDatabase db, String selection, String[] args, int limit) {
+        List<Message> messages = new ArrayList<>();
+        Cursor cursor = db.query(ChatDatabase.TABLE_MESSAGES, MESSAGE_COLUMNS, selection, args,
+                null, null, "timestamp DESC, message_id DESC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(readMessage(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private static void insertOrReplace(SQLiteDatabase db, String chatId, Message message) {
+        if (message.getMessageId() == null) return;
+
+        ContentValues values = toContentValues(chatId, message);
+        values.put("in_history", 1);
+
+        // Update in place so the row keeps its rowid, which the full-text index is keyed on
+        int updated = db.update(ChatDatabase.TABLE_MESSAGES, values, "message_id = ?",
+                new String[]{message.getMessageId()});
+        if (updated == 0) {
+            db.insert(ChatDatabase.TABLE_MESSAGES, null, values);
+        }
+    }
+
+    private static ContentValues toContentValues(String chatId, Message message) {
+        ContentValues values = new ContentValues();
+        values.put("chat_id", chatId);
+        putMessageFields(values, message);
+        values.put("seen", message.isSeen() ? 1 : 0);
+        values.put("reactions", encodeReactions(message.getReactions()));
+        values.put("seq", message.getSeq());
+        return values;
+    }
+
+    // Fields shared by the messages and outbox tables
+    private static void putMessageFields(ContentValues values, Message message) {
+        values.put("message_id", message.getMessageId());
+        values.put("sender_id", message.getSenderId());
+        values.put("receiver_id", message.getReceiverId());
+        values.put("content", message.getContent());
+        values.put("image_url", message.getImageUrl());
+        values.put("type", message.getType());
+        values.put("timestamp", message.getTimestamp());
+        values.put("thumbnail_url", message.getThumbnailUrl());
+        values.put("width", message.getWidth());
+        values.put("height", message.getHeight());
+        values.put("placeholder_hash", message.getPlaceholderHash());
+    }
+
+    static Message readMessage(Cursor cursor) {
+        Message message = new Message();
+        message.setMessageId(cursor.getString(0));
+        message.setSenderId(cursor.getString(1));
+        message.setReceiverId(cursor.getString(2));
+        message.setContent(cursor.getString(3));
+        message.setImageUrl(cursor.getString(4));
+        message.setType(cursor.getInt(5));
+        message.setTimestamp(cursor.getLong(6));
+        message.setSeen(cursor.getInt(7) != 0);
+        message.setReactions(decodeReactions(cursor.getString(8)));
+        message.setThumbnailUrl(cursor.getString(9));
+        message.setWidth(cursor.getInt(10));
+        message.setHeight(cursor.getInt(11));
+        message.setPlaceholderHash(cursor.getString(12));
+        message.setSeq(cursor.getLong(13));
+        return message;
+    }
+
+    private static boolean containsMessage(SQLiteDatabase db, String messageId) {
+        Cursor cursor = db.query(ChatDatabase.TABLE_MESSAGES, new String[]{"message_id"},
+                "message_id = ? AND in_history = 1", new String[]{messageId}, null, null, null, "1");
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nullable
+    private static Long getHistoryFloor(SQLiteDatabase db, String chatId) {
+        Cursor cursor = db.query(ChatDatabase.TABLE_CHAT_STATE, new String[]{"history_floor"},
+                "chat_id = ?", new String[]{chatId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void setHistoryFloor(SQLiteDatabase db, String chatId, long floor) {
+        ContentValues values = new ContentValues();
+        values.put("chat_id", chatId);
+        values.put("history_floor", floor);
+        db.insertWithOnConflict(ChatDatabase.TABLE_CHAT_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static long getHighWaterSeq(SQLiteDatabase db, String chatId) {
+        Cursor cursor = db.query(ChatDatabase.TABLE_SYNC_STATE, new String[]{"high_water_seq"},
+                "chat_id = ?", new String[]{chatId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void setHighWaterSeq(SQLiteDatabase db, String chatId, long seq) {
+        ContentValues values = new ContentValues();
+        values.put("chat_id", chatId);
+        values.put("high_water_seq", seq);
+        db.insertWithOnConflict(ChatDatabase.TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static String encodeReactions(Map<String, List<String>> reactions) {
+        if (reactions == null || reactions.isEmpty()) return null;
+
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, List<String>> entry : reactions.entrySet()) {
+                json.put(entry.getKey(), new JSONArray(entry.getValue()));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode reactions", e);
+            return null;
+        }
+        return json.toString();
+    }
+
+    private static Map<String, List<String>> decodeReactions(String encoded) {
+        Map<String, List<String>> reactions = new HashMap<>();
+        if (encoded == null) return reactions;
+
+        try {
+            JSONObject json = new JSONObject(encoded);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String emoji = keys.next();
+                JSONArray users = json.getJSONArray(emoji);
+                List<String> userIds = new ArrayList<>(users.length());
+                for (int i = 0; i < users.length(); i++) {
+                    userIds.add(users.getString(i));
+                }
+                reactions.put(emoji, userIds);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to decode reactions", e);
+        }
+        return reactions;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.finalchatapp.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An image upload waiting in the local upload queue, with how far each of its files has got
+ */
+public class PendingUpload {
+    public static final String PART_FULL = "full";
+    public static final String PART_THUMBNAIL = "thumbnail";
+
+    public static class Part {
+        public final String name;
+        public final String localPath;
+        // Resumable upload session, set once Firebase Storage has accepted the first chunk
+        @Nullable public final String sessionUri;
+        // Set once the file is fully uploaded
+        @Nullable public final String downloadUrl;
+
+        Part(String name, String localPath, String sessionUri, String downloadUrl) {
+            this.name = name;
+            this.localPath = localPath;
+            this.sessionUri = sessionUri;
+            this.downloadUrl = downloadUrl;
+        }
+    }
+
+    public final String messageId;
+    public final String chatId;
+    public final Part full;
+    public final Part thumbnail;
+
+    PendingUpload(@NonNull String messageId, @NonNull String chatId, @NonNull Part full, @NonNull Part thumbnail) {
+        this.messageId = messageId;
+        this.chatId = chatId;
+        this.full = full;
+        this.thumbnail = thumbnail;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.finalchatapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ids of the incoming messages that were already handled, so a message is notified about once,
+ * across the live listener, the periodic check and process restarts.
+ * Ids are kept in a ring of buckets: a new bucket starts every BUCKET_SPAN_MS or once the current one
+ * is full, and the oldest bucket is dropped as a whole, both in memory and on disk. Memory stays under
+ * BUCKET_COUNT * MAX_IDS_PER_BUCKET ids. An id is remembered for at most BUCKET_COUNT * BUCKET_SPAN_MS,
+ * two days; there is no minimum, since a burst of messages fills buckets early and rotates old ids out
+ * sooner. Only the newest BUCKET_COUNT - 1 full buckets of ids are guaranteed to be kept.
+ * Thread-safe; reads the disk on first use, so call it off the main thread.
+ */
+public class ProcessedMessageIds {
+    private static final String TAG = "ProcessedMessageIds";
+
+    private static final int BUCKET_COUNT = 8;
+    private static final long BUCKET_SPAN_MS = 6 * 60 * 60 * 1000;
+    private static final int MAX_IDS_PER_BUCKET = 1000;
+
+    private static volatile ProcessedMessageIds instance;
+
+    private final ChatDatabase database;
+    // Oldest first
+    private final ArrayDeque<Bucket> buckets = new ArrayDeque<>();
+    private boolean loaded = false;
+
+    private static class Bucket {
+        final long number;
+        final long startedAt;
+        final Set<String> ids = new HashSet<>();
+
+        Bucket(long number, long startedAt) {
+            this.number = number;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public static ProcessedMessageIds getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (ProcessedMessageIds.class) {
+                if (instance == null) {
+                    instance = new ProcessedMessageIds(ChatDatabase.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ProcessedMessageIds(ChatDatabase database) {
+        this.database = database;
+    }
+
+    @WorkerThread
+    public synchronized boolean contains(@NonNull String messageId) {
+        load();
+        for (Bucket bucket : buckets) {
+            if (bucket.ids.contains(messageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record the message as handled. Returns false if it already was, in which case the caller
+     * should drop it.
+     */
+    @WorkerThread
+    public synchronized boolean markProcessed(@NonNull String messageId) {
+        return !markAllProcessed(Collections.singletonList(messageId)).isEmpty();
+    }
+
+    /**
+     * Record the messages as handled in one transaction. Returns the ids that weren't already.
+     */
+    @WorkerThread
+    public synchronized List<String> markAllProcessed(@NonNull Collection<String> messageIds) {
+        load();
+        List<String> added = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                if (contains(messageId)) {
+                    continue;
+                }
+                Bucket current = currentBucket(now);
+                current.ids.add(messageId);
+                added.add(messageId);
+
+                ContentValues values = new ContentValues();
+                values.put("message_id", messageId);
+                values.put("bucket", current.number);
+                values.put("processed_at", now);
+                db.insertWithOnConflict(ChatDatabase.TABLE_PROCESSED_MESSAGES, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            // Still deduplicated for the rest of this process
+            Log.e(TAG, "Failed to store processed messages", e);
+        } finally {
+            db.endTransaction();
+        }
+        return added;
+    }
+
+    @WorkerThread
+    public synchronized void clear() {
+        buckets.clear();
+        loaded = true;
+        database.getWritableDatabase().delete(ChatDatabase.TABLE_PROCESSED_MESSAGES, null, null);
+    }
+
+    private Bucket currentBucket(long now) {
+        Bucket last = buckets.peekLast();
+        if (last != null && now - last.startedAt < BUCKET_SPAN_MS && last.ids.size() < MAX_IDS_PER_BUCKET) {
+            return last;
+        }
+
+        Bucket next = new Bucket(last != null ? last.number + 1 : 0, now);
+        buckets.addLast(next);
+        dropOldestBuckets();
+        return next;
+    }
+
+    private void dropOldestBuckets() {
+        while (buckets.size() > BUCKET_COUNT) {
+            Bucket dropped = buckets.removeFirst();
+            database.getWritableDatabase().delete(ChatDatabase.TABLE_PROCESSED_MESSAGES,
+                    "bucket <= ?", new String[]{String.valueOf(dropped.number)});
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try (Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_PROCESSED_MESSAGES,
+                new String[]{"message_id", "bucket", "processed_at"}, null, null, null, null, "bucket, processed_at")) {
+            Bucket bucket = null;
+            while (cursor.moveToNext()) {
+                long number = cursor.getLong(1);
+                if (bucket == null || bucket.number != number) {
+                    // Rows come in processing order, so the first one of a bucket is when it started
+                    bucket = new Bucket(number, cursor.getLong(2));
+                    buckets.addLast(bucket);
+                }
+                bucket.ids.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load processed messages", e);
+        }
+
+        dropOldestBuckets();
+        Log.d(TAG, "Loaded " + buckets.size() + " buckets of processed messages");
+    }
+}
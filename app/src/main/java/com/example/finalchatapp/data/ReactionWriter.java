@@ -0,0 +1,130 @@
+package com.example.finalchatapp.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes reaction toggles to Firestore as field-level array updates.
+ * Each toggle only touches reactions.<emoji> with arrayUnion/arrayRemove of the user's id, so two people
+ * reacting at once can't overwrite each other. Rapid toggles are coalesced: after a short quiet period
+ * only the net change per (message, emoji) is committed, all in one batch.
+ */
+public class ReactionWriter {
+    private static final String TAG = "ReactionWriter";
+
+    private static final long DEBOUNCE_MS = 400;
+    // Firestore batch limit
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private static ReactionWriter instance;
+
+    // Net state per chat/message/emoji since the last flush, in toggle order
+    private final Map<String, PendingToggle> pending = new LinkedHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    private static class PendingToggle {
+        final String chatId;
+        final String messageId;
+        final String emoji;
+        final String userId;
+        // Whether the user had reacted before the first toggle in this window
+        final boolean initiallyReacted;
+        boolean reacted;
+
+        PendingToggle(String chatId, String messageId, String emoji, String userId, boolean initiallyReacted) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.emoji = emoji;
+            this.userId = userId;
+            this.initiallyReacted = initiallyReacted;
+        }
+    }
+
+    @MainThread
+    public static ReactionWriter getInstance() {
+        if (instance == null) {
+            instance = new ReactionWriter();
+        }
+        return instance;
+    }
+
+    private ReactionWriter() {}
+
+    /**
+     * Record that the user now has (or no longer has) reacted with the emoji
+     */
+    @MainThread
+    public void setReaction(@NonNull String chatId, @NonNull String messageId, @NonNull String emoji,
+                            @NonNull String userId, boolean reacted) {
+        String key = chatId + '/' + messageId + '/' + emoji + '/' + userId;
+        PendingToggle toggle = pending.get(key);
+        if (toggle == null) {
+            toggle = new PendingToggle(chatId, messageId, emoji, userId, !reacted);
+            pending.put(key, toggle);
+        }
+        toggle.reacted = reacted;
+
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, DEBOUNCE_MS);
+    }
+
+    @MainThread
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<PendingToggle> toggles = new ArrayList<>(pending.values());
+        pending.clear();
+
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        WriteBatch batch = db.batch();
+        int writes = 0;
+        for (PendingToggle toggle : toggles) {
+            // Toggled back to where it started: nothing to write
+            if (toggle.reacted == toggle.initiallyReacted) {
+                continue;
+            }
+
+            DocumentReference messageRef = db.collection("chats").document(toggle.chatId)
+                    .collection("messages").document(toggle.messageId);
+            Object change = toggle.reacted
+                    ? FieldValue.arrayUnion(toggle.userId)
+                    : FieldValue.arrayRemove(toggle.userId);
+            batch.update(messageRef, FieldPath.of("reactions", toggle.emoji), change);
+
+            if (++writes == MAX_BATCH_WRITES) {
+                commit(batch, writes);
+                batch = db.batch();
+                writes = 0;
+            }
+        }
+
+        if (writes > 0) {
+            commit(batch, writes);
+        }
+    }
+
+    private void commit(WriteBatch batch, int writes) {
+        batch.commit()
+                .addOnSuccessListener(aVoid -> Log.d(TAG, "Committed " + writes + " reaction changes"))
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to update reactions: " + e.getMessage()));
+    }
+}
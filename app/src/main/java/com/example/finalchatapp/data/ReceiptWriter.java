@@ -0,0 +1,220 @@
+package com.example.finalchatapp.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.models.ReadReceipt;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes this user's delivered and read positions to chats/{chatId}/receipts/{userId}.
+ * A receipt is one position marker per chat, not a flag per message, and marks are coalesced:
+ * scrolling through hundreds of unread messages results in a single write once scrolling settles.
+ * Positions only move forward: each write is a transaction that keeps the furthest of the stored and
+ * the new position, so a stale mark never rewinds a receipt.
+ * Reading up to the newest incoming message also resets the unread count of the chat summary in
+ * users/{userId}/chats.
+ */
+public class ReceiptWriter {
+    private static final String TAG = "ReceiptWriter";
+
+    private static final long DEBOUNCE_MS = 1000;
+    private static final long RETRY_MS = 30 * 1000;
+
+    private static ReceiptWriter instance;
+
+    // Per chat/user: the positions committed to or seen on the server, and the ones to write next
+    private final Map<String, ReadReceipt> written = new HashMap<>();
+    private final Map<String, PendingReceipt> pending = new LinkedHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    private static class PendingReceipt {
+        final String chatId;
+        final String userId;
+        final ReadReceipt receipt;
+        // Other participant, known once something was read
+        String otherUserId;
+
+        PendingReceipt(String chatId, String userId, ReadReceipt receipt) {
+            this.chatId = chatId;
+            this.userId = userId;
+            this.receipt = receipt;
+        }
+    }
+
+    @MainThread
+    public static ReceiptWriter getInstance() {
+        if (instance == null) {
+            instance = new ReceiptWriter();
+        }
+        return instance;
+    }
+
+    private ReceiptWriter() {}
+
+    /**
+     * Positions already stored on the server, e.g. written from another device
+     */
+    @MainThread
+    public void onServerReceipt(@NonNull String chatId, @NonNull String userId, @NonNull ReadReceipt receipt) {
+        String key = key(chatId, userId);
+        ReadReceipt known = written.get(key);
+        if (known == null) {
+            written.put(key, new ReadReceipt(receipt));
+        } else {
+            known.merge(receipt);
+        }
+    }
+
+    /**
+     * The user has seen the message, and so everything before it
+     */
+    @MainThread
+    public void markRead(@NonNull String chatId, @NonNull String userId, @NonNull Message message) {
+        PendingReceipt entry = pendingFor(chatId, userId);
+        entry.otherUserId = message.getSenderId();
+        if (entry.receipt.advanceRead(message)) {
+            schedule();
+        }
+    }
+
+    /**
+     * The message has reached this device
+     */
+    @MainThread
+    public void markDelivered(@NonNull String chatId, @NonNull String userId, @NonNull Message message) {
+        if (pendingFor(chatId, userId).receipt.advanceDelivered(message)) {
+            schedule();
+        }
+    }
+
+    private PendingReceipt pendingFor(String chatId, String userId) {
+        String key = key(chatId, userId);
+        PendingReceipt entry = pending.get(key);
+        if (entry == null) {
+            ReadReceipt known = written.get(key);
+            entry = new PendingReceipt(chatId, userId, known != null ? new ReadReceipt(known) : new ReadReceipt());
+            pending.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void schedule() {
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, DEBOUNCE_MS);
+    }
+
+    @MainThread
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        for (Map.Entry<String, PendingReceipt> entry : pending.entrySet()) {
+            PendingReceipt next = entry.getValue();
+            if (advancedFields(written.get(entry.getKey()), next.receipt).isEmpty()) {
+                continue;
+            }
+            write(db, next.chatId, next.userId, next.otherUserId, new ReadReceipt(next.receipt));
+        }
+        pending.clear();
+    }
+
+    /**
+     * Compare against what the server holds, not just what this process wrote: after a restart or from
+     * a second device the local view can be behind, and a blind write would rewind the receipt
+     */
+    private void write(FirebaseFirestore db, String chatId, String userId, String otherUserId, ReadReceipt receipt) {
+        DocumentReference receiptRef = db.collection("chats").document(chatId).collection("receipts").document(userId);
+        db.runTransaction(transaction -> {
+                    DocumentSnapshot snapshot = transaction.get(receiptRef);
+                    ReadReceipt stored = snapshot.exists() ? snapshot.toObject(ReadReceipt.class) : null;
+                    Map<String, Object> fields = advancedFields(stored, receipt);
+
+                    // Reading the summary makes the transaction retry if a new message bumps it meanwhile
+                    DocumentReference summaryRef = null;
+                    if (otherUserId != null && (fields.containsKey("readSeq") || fields.containsKey("readTimestamp"))) {
+                        summaryRef = db.collection("users").document(userId).collection("chats").document(otherUserId);
+                        Long lastIncomingSeq = transaction.get(summaryRef).getLong("lastIncomingSeq");
+                        long readSeq = Math.max(receipt.getReadSeq(), stored != null ? stored.getReadSeq() : 0);
+                        // Messages after the read position are still unread
+                        if (lastIncomingSeq != null && readSeq < lastIncomingSeq) {
+                            summaryRef = null;
+                        }
+                    }
+
+                    if (!fields.isEmpty()) {
+                        transaction.set(receiptRef, fields, SetOptions.merge());
+                    }
+                    if (summaryRef != null) {
+                        transaction.set(summaryRef, Collections.singletonMap("unreadCount", 0), SetOptions.merge());
+                    }
+                    return stored;
+                })
+                .addOnSuccessListener(stored -> {
+                    Log.d(TAG, "Committed receipt for " + chatId);
+                    onServerReceipt(chatId, userId, receipt);
+                    // Positions another device wrote stop later flushes from trying to write them again
+                    if (stored != null) {
+                        onServerReceipt(chatId, userId, stored);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    // Transactions don't queue offline; keep the positions and try again later
+                    Log.e(TAG, "Failed to write receipt: " + e.getMessage());
+                    retry(chatId, userId, otherUserId, receipt);
+                });
+    }
+
+    private void retry(String chatId, String userId, String otherUserId, ReadReceipt receipt) {
+        PendingReceipt entry = pendingFor(chatId, userId);
+        entry.receipt.merge(receipt);
+        if (entry.otherUserId == null) {
+            entry.otherUserId = otherUserId;
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, RETRY_MS);
+    }
+
+    // Only the positions that moved past what the server already has
+    private static Map<String, Object> advancedFields(ReadReceipt known, ReadReceipt next) {
+        if (known == null) {
+            known = new ReadReceipt();
+        }
+
+        Map<String, Object> fields = new HashMap<>();
+        if (next.getDeliveredSeq() > known.getDeliveredSeq()) {
+            fields.put("deliveredSeq", next.getDeliveredSeq());
+        }
+        if (next.getDeliveredTimestamp() > known.getDeliveredTimestamp()) {
+            fields.put("deliveredTimestamp", next.getDeliveredTimestamp());
+        }
+        if (next.getReadSeq() > known.getReadSeq()) {
+            fields.put("readSeq", next.getReadSeq());
+        }
+        if (next.getReadTimestamp() > known.getReadTimestamp()) {
+            fields.put("readTimestamp", next.getReadTimestamp());
+        }
+        return fields;
+    }
+
+    private static String key(String chatId, String userId) {
+        return chatId + '/' + userId;
+    }
+}
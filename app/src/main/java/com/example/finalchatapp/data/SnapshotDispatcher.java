@@ -0,0 +1,87 @@
+package com.example.finalchatapp.data;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.finalchatapp.AppExecutors;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+/**
+ * Snapshot listeners whose results are parsed off the main thread.
+ * Snapshots are delivered on the snapshots executor, where toObject() and any other per-document work
+ * happens; only the parsed result is posted to the main thread. Once the registration is removed,
+ * results still on their way to the main thread are dropped, so a stopped screen never sees them.
+ */
+public final class SnapshotDispatcher {
+
+    public interface Parser<T> {
+        /**
+         * Turn the snapshot into what the main thread needs, or null if there is nothing to apply
+         */
+        @WorkerThread
+        @Nullable
+        T parse(@NonNull QuerySnapshot snapshot);
+    }
+
+    public interface Receiver<T> {
+        @MainThread
+        void onParsed(@NonNull T parsed);
+
+        @MainThread
+        void onError(@NonNull FirebaseFirestoreException error);
+    }
+
+    private SnapshotDispatcher() {}
+
+    @NonNull
+    public static <T> ListenerRegistration listen(@NonNull Query query, @NonNull Parser<T> parser,
+                                                  @NonNull Receiver<T> receiver) {
+        return listen(query, MetadataChanges.EXCLUDE, parser, receiver);
+    }
+
+    /**
+     * With MetadataChanges.INCLUDE the parser also sees snapshots that only change metadata,
+     * such as the one confirming that cached results are in sync with the server
+     */
+    @NonNull
+    public static <T> ListenerRegistration listen(@NonNull Query query, @NonNull MetadataChanges metadataChanges,
+                                                  @NonNull Parser<T> parser, @NonNull Receiver<T> receiver) {
+        ActiveRegistration active = new ActiveRegistration();
+        active.registration = query.addSnapshotListener(AppExecutors.snapshots(), metadataChanges, (snapshot, error) -> {
+            if (!active.active) return;
+
+            if (error != null) {
+                AppExecutors.runOnMain(() -> {
+                    if (active.active) receiver.onError(error);
+                });
+                return;
+            }
+            if (snapshot == null) return;
+
+            T parsed = parser.parse(snapshot);
+            if (parsed == null) return;
+
+            AppExecutors.runOnMain(() -> {
+                if (active.active) receiver.onParsed(parsed);
+            });
+        });
+        return active;
+    }
+
+    private static class ActiveRegistration implements ListenerRegistration {
+        volatile boolean active = true;
+        ListenerRegistration registration;
+
+        @Override
+        public void remove() {
+            active = false;
+            registration.remove();
+        }
+    }
+}
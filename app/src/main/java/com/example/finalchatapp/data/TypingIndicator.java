@@ -0,0 +1,175 @@
+package com.example.finalchatapp.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+
+/**
+ * "Is typing" state of one chat, kept in chats/{chatId}/ephemeral/typing as one field per typing user,
+ * holding the server time of the last refresh. Keystrokes are throttled: the first one writes right away,
+ * then at most one refresh per THROTTLE_MS while typing continues. The receiving side expires the state
+ * on its own clock, so a client that disappears mid-sentence stops showing as typing without anyone
+ * having to clear the field.
+ */
+public class TypingIndicator {
+    private static final String TAG = "TypingIndicator";
+
+    private static final long THROTTLE_MS = 4000;
+    // Typing stops after this long without a keystroke
+    private static final long IDLE_MS = 5000;
+    // A typing state that isn't refreshed within this long is stale
+    private static final long EXPIRY_MS = THROTTLE_MS + 3000;
+    // A value older than this on first sight was left behind by a client that died while typing;
+    // generous enough to absorb clock skew
+    private static final long STALE_MS = 60_000;
+
+    public interface Listener {
+        void onTypingChanged(boolean typing);
+    }
+
+    private final DocumentReference typingRef;
+    private final String userId;
+    private final String otherUserId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Outgoing state
+    private boolean sentTyping = false;
+    private long lastTypingWrite = 0;
+    private final Runnable idleRunnable = () -> setTyping(false);
+
+    // Incoming state
+    private ListenerRegistration registration;
+    private Listener listener;
+    private boolean otherTyping = false;
+    private Timestamp lastOtherRefresh;
+    private final Runnable expireRunnable = () -> setOtherTyping(false);
+
+    public TypingIndicator(@NonNull FirebaseFirestore db, @NonNull String chatId,
+                           @NonNull String userId, @NonNull String otherUserId) {
+        this.typingRef = db.collection("chats").document(chatId).collection("ephemeral").document("typing");
+        this.userId = userId;
+        this.otherUserId = otherUserId;
+    }
+
+    /**
+     * Call on every change of the message input
+     */
+    @MainThread
+    public void onInputChanged(boolean hasText) {
+        handler.removeCallbacks(idleRunnable);
+        if (!hasText) {
+            setTyping(false);
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!sentTyping || now - lastTypingWrite >= THROTTLE_MS) {
+            lastTypingWrite = now;
+            setTyping(true);
+        }
+        handler.postDelayed(idleRunnable, IDLE_MS);
+    }
+
+    /**
+     * Clear this user's typing state right away, e.g. once the message is sent
+     */
+    @MainThread
+    public void stopTyping() {
+        handler.removeCallbacks(idleRunnable);
+        setTyping(false);
+    }
+
+    private void setTyping(boolean typing) {
+        // Refreshes while typing are rate limited by the caller; a stop is only written once
+        if (!typing && !sentTyping) {
+            return;
+        }
+        sentTyping = typing;
+
+        // A fresh timestamp on every refresh, so the other side gets a snapshot each time
+        Object value = typing ? FieldValue.serverTimestamp() : FieldValue.delete();
+        typingRef.set(Collections.singletonMap(userId, value), SetOptions.merge())
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to update typing state: " + e.getMessage()));
+    }
+
+    /**
+     * Listen to the other user's typing state while the chat is on screen
+     */
+    @MainThread
+    public void start(@NonNull Listener listener) {
+        if (registration != null) {
+            return;
+        }
+        this.listener = listener;
+
+        registration = typingRef.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Typing listener failed", error);
+                return;
+            }
+            // Our own writes echo back locally first, and cached state is old by definition
+            if (snapshot == null || snapshot.getMetadata().hasPendingWrites() || snapshot.getMetadata().isFromCache()) {
+                return;
+            }
+
+            // Snapshots also arrive for our own refreshes; only a new value from the other user counts
+            Timestamp refreshed = snapshot.getTimestamp(otherUserId);
+            if (refreshed == null) {
+                lastOtherRefresh = null;
+                handler.removeCallbacks(expireRunnable);
+                setOtherTyping(false);
+                return;
+            }
+            if (refreshed.equals(lastOtherRefresh)) {
+                return;
+            }
+
+            // The first value seen may have been left behind long ago; later ones are new refreshes
+            boolean firstSeen = lastOtherRefresh == null;
+            lastOtherRefresh = refreshed;
+            if (firstSeen && System.currentTimeMillis() - refreshed.toDate().getTime() >= STALE_MS) {
+                return;
+            }
+            handler.removeCallbacks(expireRunnable);
+            handler.postDelayed(expireRunnable, EXPIRY_MS);
+            setOtherTyping(true);
+        });
+    }
+
+    /**
+     * Detach the listener and clear this user's typing state
+     */
+    @MainThread
+    public void stop() {
+        stopTyping();
+        handler.removeCallbacks(expireRunnable);
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        setOtherTyping(false);
+        lastOtherRefresh = null;
+        listener = null;
+    }
+
+    private void setOtherTyping(boolean typing) {
+        if (otherTyping == typing) return;
+        otherTyping = typing;
+        if (listener != null) {
+            listener.onTypingChanged(typing);
+        }
+    }
+}
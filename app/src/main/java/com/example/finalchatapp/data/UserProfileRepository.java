@@ -0,0 +1,304 @@
+package com.example.finalchatapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.finalchatapp.AppExecutors;
+import com.example.finalchatapp.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Profiles of other users, read through a memory LRU and an on-device table before going to Firestore.
+ * Lookups requested in the same main-thread turn, e.g. while a list binds its first screen of rows,
+ * are coalesced and fetched as whereIn(documentId) queries of up to 30 ids. A profile older than
+ * PROFILE_TTL_MS is still handed out right away and refreshed in the background.
+ * A user is only ever looked up once at a time; later requests wait for the same result.
+ */
+public class UserProfileRepository {
+    private static final String TAG = "UserProfileRepository";
+
+    private static final int MEMORY_CACHE_SIZE = 200;
+    private static final long PROFILE_TTL_MS = 15 * 60 * 1000;
+    // Firestore limit for whereIn
+    private static final int MAX_IDS_PER_QUERY = 30;
+
+    private static final String[] PROFILE_COLUMNS = {
+            "user_id", "username", "email", "profile_image_url", "status", "fetched_at"
+    };
+
+    public interface Callback {
+        /**
+         * The profile, or null if the user doesn't exist or couldn't be loaded
+         */
+        void onProfile(@Nullable User user);
+    }
+
+    private static UserProfileRepository instance;
+
+    private final ChatDatabase database;
+    private final FirebaseFirestore db = FirebaseFirestore.getInstance();
+    private final LruCache<String, CachedProfile> memory = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Ids queued for the next flush, and every id queued or in flight
+    private final Set<String> queued = new LinkedHashSet<>();
+    private final Set<String> loading = new HashSet<>();
+    private final Map<String, List<Callback>> waiting = new HashMap<>();
+    private final Map<String, Task<User>> profileTasks = new HashMap<>();
+    private boolean flushScheduled = false;
+    private final Runnable flushRunnable = this::flush;
+
+    private static class CachedProfile {
+        final User user;
+        final long fetchedAt;
+
+        CachedProfile(User user, long fetchedAt) {
+            this.user = user;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - fetchedAt > PROFILE_TTL_MS;
+        }
+    }
+
+    @MainThread
+    public static UserProfileRepository getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new UserProfileRepository(ChatDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    private UserProfileRepository(ChatDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Deliver the profile. A profile in memory is delivered before this returns;
+     * otherwise the callback runs later on the main thread.
+     */
+    @MainThread
+    public void get(@NonNull String userId, @NonNull Callback callback) {
+        CachedProfile cached = memory.get(userId);
+        if (cached != null) {
+            if (cached.isStale()) {
+                enqueue(userId);
+            }
+            callback.onProfile(cached.user);
+            return;
+        }
+
+        List<Callback> callbacks = waiting.get(userId);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            waiting.put(userId, callbacks);
+        }
+        callbacks.add(callback);
+        enqueue(userId);
+    }
+
+    /**
+     * The profile as a Task, null if the user doesn't exist or couldn't be loaded.
+     * Concurrent requests for the same user share one Task, and so one lookup.
+     */
+    @MainThread
+    @NonNull
+    public Task<User> getProfile(@NonNull String userId) {
+        Task<User> inFlight = profileTasks.get(userId);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        TaskCompletionSource<User> source = new TaskCompletionSource<>();
+        profileTasks.put(userId, source.getTask());
+        get(userId, user -> {
+            profileTasks.remove(userId);
+            source.setResult(user);
+        });
+        return source.getTask();
+    }
+
+    /**
+     * Warm the cache for profiles about to be shown
+     */
+    @MainThread
+    public void prefetch(@NonNull Collection<String> userIds) {
+        for (String userId : userIds) {
+            CachedProfile cached = memory.get(userId);
+            if (cached == null || cached.isStale()) {
+                enqueue(userId);
+            }
+        }
+    }
+
+    private void enqueue(String userId) {
+        if (!loading.add(userId)) {
+            return;
+        }
+        queued.add(userId);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.post(flushRunnable);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (queued.isEmpty()) {
+            return;
+        }
+        List<String> userIds = new ArrayList<>(queued);
+        queued.clear();
+
+        AppExecutors.diskIO().execute(() -> {
+            Map<String, CachedProfile> stored = readProfiles(userIds);
+            AppExecutors.runOnMain(() -> onDiskResult(userIds, stored));
+        });
+    }
+
+    private void onDiskResult(List<String> userIds, Map<String, CachedProfile> stored) {
+        List<String> toFetch = new ArrayList<>();
+        for (String userId : userIds) {
+            CachedProfile profile = stored.get(userId);
+            if (profile != null) {
+                // Disk can be older than what the network delivered meanwhile
+                CachedProfile current = memory.get(userId);
+                if (current == null || current.fetchedAt < profile.fetchedAt) {
+                    memory.put(userId, profile);
+                }
+                deliver(userId, memory.get(userId).user);
+                if (!profile.isStale()) {
+                    loading.remove(userId);
+                    continue;
+                }
+            }
+            toFetch.add(userId);
+        }
+
+        for (int start = 0; start < toFetch.size(); start += MAX_IDS_PER_QUERY) {
+            fetch(new ArrayList<>(toFetch.subList(start, Math.min(start + MAX_IDS_PER_QUERY, toFetch.size()))));
+        }
+    }
+
+    private void fetch(List<String> userIds) {
+        db.collection("users")
+                .whereIn(FieldPath.documentId(), userIds)
+                .get()
+                .addOnSuccessListener(snapshots -> {
+                    long now = System.currentTimeMillis();
+                    List<CachedProfile> fetched = new ArrayList<>();
+                    for (DocumentSnapshot document : snapshots.getDocuments()) {
+                        User user = document.toObject(User.class);
+                        if (user == null) continue;
+                        user.setUserId(document.getId());
+
+                        CachedProfile profile = new CachedProfile(user, now);
+                        memory.put(document.getId(), profile);
+                        fetched.add(profile);
+                    }
+                    AppExecutors.diskIO().execute(() -> writeProfiles(fetched));
+
+                    for (String userId : userIds) {
+                        loading.remove(userId);
+                        CachedProfile profile = memory.get(userId);
+                        deliver(userId, profile != null ? profile.user : null);
+                    }
+                    Log.d(TAG, "Fetched " + fetched.size() + " of " + userIds.size() + " profiles");
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to fetch profiles: " + e.getMessage());
+                    for (String userId : userIds) {
+                        loading.remove(userId);
+                        deliver(userId, null);
+                    }
+                });
+    }
+
+    private void deliver(String userId, @Nullable User user) {
+        List<Callback> callbacks = waiting.remove(userId);
+        if (callbacks == null) {
+            return;
+        }
+        for (Callback callback : callbacks) {
+            callback.onProfile(user);
+        }
+    }
+
+    @WorkerThread
+    private Map<String, CachedProfile> readProfiles(List<String> userIds) {
+        Map<String, CachedProfile> profiles = new HashMap<>();
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < userIds.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+
+        try (Cursor cursor = database.getReadableDatabase().query(ChatDatabase.TABLE_USER_PROFILES, PROFILE_COLUMNS,
+                "user_id IN (" + placeholders + ")", userIds.toArray(new String[0]), null, null, null)) {
+            while (cursor.moveToNext()) {
+                User user = new User();
+                user.setUserId(cursor.getString(0));
+                user.setUsername(cursor.getString(1));
+                user.setEmail(cursor.getString(2));
+                user.setProfileImageUrl(cursor.getString(3));
+                user.setStatus(cursor.getString(4));
+                profiles.put(user.getUserId(), new CachedProfile(user, cursor.getLong(5)));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read profiles", e);
+        }
+        return profiles;
+    }
+
+    @WorkerThread
+    private void writeProfiles(List<CachedProfile> profiles) {
+        if (profiles.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase sqlite = database.getWritableDatabase();
+        sqlite.beginTransaction();
+        try {
+            for (CachedProfile profile : profiles) {
+                ContentValues values = new ContentValues();
+                values.put("user_id", profile.user.getUserId());
+                values.put("username", profile.user.getUsername());
+                values.put("email", profile.user.getEmail());
+                values.put("profile_image_url", profile.user.getProfileImageUrl());
+                values.put("status", profile.user.getStatus());
+                values.put("fetched_at", profile.fetchedAt);
+                sqlite.insertWithOnConflict(ChatDatabase.TABLE_USER_PROFILES, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            sqlite.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to store profiles", e);
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+}
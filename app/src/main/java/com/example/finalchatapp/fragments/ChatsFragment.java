@@ -9,17 +9,26 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.finalchatapp.AppExecutors;
 import com.example.finalchatapp.R;
 import com.example.finalchatapp.adapters.ChatsAdapter;
+import com.example.finalchatapp.data.SnapshotDispatcher;
+import com.example.finalchatapp.data.UserProfileRepository;
 import com.example.finalchatapp.models.ChatPreview;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,12 +41,21 @@ public class ChatsFragment extends Fragment {
     private ChatsAdapter adapter;
     private List<ChatPreview> chatPreviews;
 
+    private ListenerRegistration chatsRegistration;
+    private DocumentSnapshot oldestDocument;
+    private boolean loadingMore = false;
+    private boolean reachedEnd = false;
+
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
     private FirebaseUser currentUser;
 
     private static final String TAG = "ChatsFragment";
 
+    private static final int PAGE_SIZE = 30;
+    // Rows left below the last visible one when the next page is requested
+    private static final int LOAD_MORE_DISTANCE = 5;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -61,75 +79,241 @@ public class ChatsFragment extends Fragment {
 
         // Set up RecyclerView
         chatPreviews = new ArrayList<>();
+        oldestDocument = null;
+        loadingMore = false;
+        reachedEnd = false;
         adapter = new ChatsAdapter(getContext(), chatPreviews);
-        recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(adapter);
-
-        // Initial UI state
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= chatPreviews.size() - LOAD_MORE_DISTANCE) {
+                    loadMore();
+                }
+            }
+        });
+
+        // Initial UI state; the chats themselves arrive once the listener starts
         showLoading();
 
-        // Load chats
-        loadChats();
-
         return view;
     }
 
-    private void loadChats() {
+    // The live window; older chats are read in pages as the list is scrolled
+    private void startListening() {
         if (currentUser == null) {
             showEmpty("You are not logged in");
             return;
         }
+        if (chatsRegistration != null) {
+            return;
+        }
 
-        Log.d(TAG, "Loading chats for user: " + currentUser.getUid());
-
-        db.collection("users").document(currentUser.getUid())
-                .collection("chats")
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    chatPreviews.clear();
-
-                    Log.d(TAG, "Chats query returned " + queryDocumentSnapshots.size() + " documents");
+        Log.d(TAG, "Listening to chats for user: " + currentUser.getUid());
 
-                    if (queryDocumentSnapshots.isEmpty()) {
-                        showEmpty("No conversations yet");
-                        return;
+        // The first snapshot comes from the local cache when there is one, so the list shows up right away
+        chatsRegistration = SnapshotDispatcher.listen(chatsQuery().limit(PAGE_SIZE),
+                snapshots -> parseChats(snapshots, true),
+                new SnapshotDispatcher.Receiver<ChatsPage>() {
+                    @Override
+                    public void onParsed(@NonNull ChatsPage page) {
+                        if (page.complete) {
+                            reachedEnd = true;
+                        }
+                        applyPage(page);
                     }
 
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        try {
-                            String userId = document.getId();
-                            String lastMessage = document.getString("lastMessageContent");
-                            Long timestamp = document.getLong("lastMessageTimestamp");
-                            String senderId = document.getString("lastMessageSenderId");
-
-                            Log.d(TAG, "Found chat with user: " + userId + ", last message: " + lastMessage);
-
-                            if (lastMessage != null && timestamp != null && senderId != null) {
-                                ChatPreview chatPreview = new ChatPreview(userId, lastMessage, timestamp, senderId);
-                                chatPreviews.add(chatPreview);
-                            } else {
-                                Log.w(TAG, "Missing data for chat with user: " + userId);
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error parsing chat document: " + document.getId(), e);
+                    @Override
+                    public void onError(@NonNull FirebaseFirestoreException error) {
+                        Log.e(TAG, "Error loading chats", error);
+                        if (chatPreviews.isEmpty()) {
+                            showError("Error loading chats: " + error.getMessage());
                         }
                     }
+                });
+    }
 
-                    Log.d(TAG, "Added " + chatPreviews.size() + " chats to the list");
+    private void stopListening() {
+        if (chatsRegistration != null) {
+            chatsRegistration.remove();
+            chatsRegistration = null;
+        }
+    }
 
-                    if (chatPreviews.isEmpty()) {
-                        showEmpty("No valid conversations found");
-                    } else {
-                        showChats();
-                        adapter.notifyDataSetChanged();
-                    }
+    private void loadMore() {
+        if (loadingMore || reachedEnd || oldestDocument == null) {
+            return;
+        }
+        loadingMore = true;
+
+        chatsQuery()
+                .startAfter(oldestDocument)
+                .limit(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(AppExecutors.snapshots(), snapshots -> {
+                    ChatsPage page = parseChats(snapshots, false);
+                    AppExecutors.runOnMain(() -> {
+                        loadingMore = false;
+                        reachedEnd = snapshots.size() < PAGE_SIZE;
+                        Log.d(TAG, "Loaded " + snapshots.size() + " older chats");
+                        applyPage(page);
+                    });
                 })
                 .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading chats", e);
-                    showError("Error loading chats: " + e.getMessage());
+                    loadingMore = false;
+                    Log.e(TAG, "Error loading older chats", e);
                 });
     }
 
+    // A page of chat summaries, parsed off the main thread
+    private static class ChatsPage {
+        final List<ChatPreview> chats = new ArrayList<>();
+        DocumentSnapshot oldest;
+        boolean fromCache;
+        boolean complete;
+    }
+
+    private static ChatsPage parseChats(QuerySnapshot snapshots, boolean changesOnly) {
+        ChatsPage page = new ChatsPage();
+        page.fromCache = snapshots.getMetadata().isFromCache();
+        page.complete = snapshots.size() < PAGE_SIZE && !page.fromCache;
+        if (!snapshots.isEmpty()) {
+            page.oldest = snapshots.getDocuments().get(snapshots.size() - 1);
+        }
+
+        if (changesOnly) {
+            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                // A chat pushed out of the window by a newer one is still a chat, and it stays
+                // in place below the window until it changes and comes back in at the top
+                if (change.getType() == DocumentChange.Type.REMOVED) continue;
+                addChat(page, change.getDocument());
+            }
+        } else {
+            for (DocumentSnapshot document : snapshots.getDocuments()) {
+                addChat(page, document);
+            }
+        }
+        return page;
+    }
+
+    private static void addChat(ChatsPage page, DocumentSnapshot document) {
+        String userId = document.getId();
+        String lastMessage = document.getString("lastMessageContent");
+        Long timestamp = document.getLong("lastMessageTimestamp");
+        String senderId = document.getString("lastMessageSenderId");
+        if (lastMessage == null || timestamp == null || senderId == null) {
+            Log.w(TAG, "Missing data for chat with user: " + userId);
+            return;
+        }
+
+        ChatPreview chatPreview = new ChatPreview(userId, lastMessage, timestamp, senderId);
+        Long unreadCount = document.getLong("unreadCount");
+        chatPreview.setUnreadCount(unreadCount != null ? unreadCount : 0);
+        page.chats.add(chatPreview);
+    }
+
+    private void applyPage(ChatsPage page) {
+        List<String> userIds = new ArrayList<>();
+        for (ChatPreview chatPreview : page.chats) {
+            if (upsert(chatPreview)) {
+                userIds.add(chatPreview.getUserId());
+            }
+        }
+        if (page.oldest != null) {
+            trackOldest(page.oldest);
+        }
+        onChatsLoaded(userIds, page.fromCache);
+    }
+
+    private Query chatsQuery() {
+        return db.collection("users").document(currentUser.getUid())
+                .collection("chats")
+                .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING);
+    }
+
+    private void trackOldest(DocumentSnapshot document) {
+        Long timestamp = document.getLong("lastMessageTimestamp");
+        if (timestamp == null) return;
+
+        Long oldest = oldestDocument != null ? oldestDocument.getLong("lastMessageTimestamp") : null;
+        if (oldest == null || timestamp < oldest) {
+            oldestDocument = document;
+        }
+    }
+
+    /**
+     * Put the chat at its place in the list, moving the row when it got a newer message.
+     * Returns whether the row is new.
+     */
+    private boolean upsert(ChatPreview chatPreview) {
+        String userId = chatPreview.getUserId();
+        long timestamp = chatPreview.getLastMessageTimestamp();
+
+        int from = indexOfChat(userId);
+        if (from >= 0) {
+            ChatPreview existing = chatPreviews.get(from);
+            if (existing.getLastMessageTimestamp() == timestamp
+                    && existing.getUnreadCount() == chatPreview.getUnreadCount()
+                    && chatPreview.getLastMessageContent().equals(existing.getLastMessageContent())) {
+                return false;
+            }
+            chatPreviews.remove(from);
+        }
+
+        int to = insertionPoint(timestamp);
+        chatPreviews.add(to, chatPreview);
+        if (from < 0) {
+            adapter.notifyItemInserted(to);
+            return true;
+        }
+        if (from != to) {
+            adapter.notifyItemMoved(from, to);
+        }
+        adapter.notifyItemChanged(to);
+        return false;
+    }
+
+    private int indexOfChat(String userId) {
+        for (int i = 0; i < chatPreviews.size(); i++) {
+            if (chatPreviews.get(i).getUserId().equals(userId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Newest first; among equal timestamps the newcomer goes first
+    private int insertionPoint(long timestamp) {
+        int low = 0;
+        int high = chatPreviews.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chatPreviews.get(mid).getLastMessageTimestamp() > timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void onChatsLoaded(List<String> newUserIds, boolean fromCache) {
+        if (!isAdded()) return;
+
+        // One batched lookup for the new rows' profiles instead of one per bind
+        if (!newUserIds.isEmpty()) {
+            UserProfileRepository.getInstance(requireContext()).prefetch(newUserIds);
+        }
+
+        if (!chatPreviews.isEmpty()) {
+            showChats();
+        } else if (!fromCache) {
+            showEmpty("No conversations yet");
+        }
+    }
+
     private void showLoading() {
         progressBar.setVisibility(View.VISIBLE);
         recyclerView.setVisibility(View.GONE);
@@ -156,12 +340,14 @@ public class ChatsFragment extends Fragment {
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
+    public void onStart() {
+        super.onStart();
+        startListening();
+    }
 
-        if (isAdded()) {
-            showLoading();
-            loadChats();
-        }
+    @Override
+    public void onStop() {
+        super.onStop();
+        stopListening();
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.example.finalchatapp.media;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * BlurHash encoder and decoder (https://blurha.sh).
+ * Packs a handful of DCT components of an image into a short base83 string, about 28 characters
+ * for the 4x3 components used here, that decodes back into a blurred preview without any network fetch.
+ */
+public final class BlurHash {
+
+    public static final int DEFAULT_COMPONENTS_X = 4;
+    public static final int DEFAULT_COMPONENTS_Y = 3;
+
+    private static final String BASE83_CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {}
+
+    /**
+     * Encode a bitmap. Pass a small, already downscaled bitmap: the cost grows with its pixel count.
+     */
+    @NonNull
+    public static String encode(@NonNull Bitmap bitmap, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+            throw new IllegalArgumentException("Components must be between 1 and 9");
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        float[][] factors = new float[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                factors[j * componentsX + i] = multiplyBasis(pixels, width, height, i, j);
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+        float maximumValue;
+        if (factors.length > 1) {
+            float actualMaximum = 0f;
+            for (int k = 1; k < factors.length; k++) {
+                for (float value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximumValue = (quantisedMaximum + 1) / 166f;
+            encode83(hash, quantisedMaximum, 1);
+        } else {
+            maximumValue = 1f;
+            encode83(hash, 0, 1);
+        }
+
+        encode83(hash, encodeDc(factors[0]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            encode83(hash, encodeAc(factors[k], maximumValue), 2);
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Decode a hash into a bitmap of the given size, or null if the hash is malformed
+     */
+    @Nullable
+    public static Bitmap decode(@Nullable String hash, int width, int height) {
+        if (hash == null || hash.length() < 6 || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        int sizeFlag = decode83(hash, 0, 1);
+        int componentsY = sizeFlag / 9 + 1;
+        int componentsX = sizeFlag % 9 + 1;
+        if (sizeFlag < 0 || hash.length() != 4 + 2 * componentsX * componentsY) {
+            return null;
+        }
+
+        int quantisedMaximum = decode83(hash, 1, 2);
+        float maximumValue = (quantisedMaximum + 1) / 166f;
+
+        float[][] colors = new float[componentsX * componentsY][];
+        colors[0] = decodeDc(decode83(hash, 2, 6));
+        for (int k = 1; k < colors.length; k++) {
+            int value = decode83(hash, 4 + k * 2, 6 + k * 2);
+            if (value < 0) {
+                return null;
+            }
+            colors[k] = decodeAc(value, maximumValue);
+        }
+
+        // Cosines only depend on one coordinate each, so compute them once per row and column
+        float[] cosX = new float[width * componentsX];
+        for (int x = 0; x < width; x++) {
+            for (int i = 0; i < componentsX; i++) {
+                cosX[x * componentsX + i] = (float) Math.cos(Math.PI * x * i / width);
+            }
+        }
+        float[] cosY = new float[height * componentsY];
+        for (int y = 0; y < height; y++) {
+            for (int j = 0; j < componentsY; j++) {
+                cosY[y * componentsY + j] = (float) Math.cos(Math.PI * y * j / height);
+            }
+        }
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float r = 0f, g = 0f, b = 0f;
+                for (int j = 0; j < componentsY; j++) {
+                    for (int i = 0; i < componentsX; i++) {
+                        float basis = cosX[x * componentsX + i] * cosY[y * componentsY + j];
+                        float[] color = colors[j * componentsX + i];
+                        r += color[0] * basis;
+                        g += color[1] * basis;
+                        b += color[2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xFF000000
+                        | (linearToSrgb(r) << 16)
+                        | (linearToSrgb(g) << 8)
+                        | linearToSrgb(b);
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static float[] multiplyBasis(int[] pixels, int width, int height, int i, int j) {
+        float r = 0f, g = 0f, b = 0f;
+        float normalisation = (i == 0 && j == 0) ? 1f : 2f;
+        for (int y = 0; y < height; y++) {
+            float cosY = (float) Math.cos(Math.PI * j * y / height);
+            for (int x = 0; x < width; x++) {
+                float basis = normalisation * (float) Math.cos(Math.PI * i * x / width) * cosY;
+                int pixel = pixels[y * width + x];
+                r += basis * srgbToLinear((pixel >> 16) & 0xFF);
+                g += basis * srgbToLinear((pixel >> 8) & 0xFF);
+                b += basis * srgbToLinear(pixel & 0xFF);
+            }
+        }
+        float scale = 1f / (width * height);
+        return new float[]{r * scale, g * scale, b * scale};
+    }
+
+    private static int encodeDc(float[] color) {
+        return (linearToSrgb(color[0]) << 16) + (linearToSrgb(color[1]) << 8) + linearToSrgb(color[2]);
+    }
+
+    private static int encodeAc(float[] color, float maximumValue) {
+        int quantR = quantiseAc(color[0] / maximumValue);
+        int quantG = quantiseAc(color[1] / maximumValue);
+        int quantB = quantiseAc(color[2] / maximumValue);
+        return quantR * 19 * 19 + quantG * 19 + quantB;
+    }
+
+    private static int quantiseAc(float value) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signPow(value, 0.5f) * 9 + 9.5)));
+    }
+
+    private static float[] decodeDc(int value) {
+        return new float[]{
+                srgbToLinear((value >> 16) & 0xFF),
+                srgbToLinear((value >> 8) & 0xFF),
+                srgbToLinear(value & 0xFF)
+        };
+    }
+
+    private static float[] decodeAc(int value, float maximumValue) {
+        int quantR = value / (19 * 19);
+        int quantG = (value / 19) % 19;
+        int quantB = value % 19;
+        return new float[]{
+                signPow((quantR - 9) / 9f, 2f) * maximumValue,
+                signPow((quantG - 9) / 9f, 2f) * maximumValue,
+                signPow((quantB - 9) / 9f, 2f) * maximumValue
+        };
+    }
+
+    private static float signPow(float value, float exponent) {
+        return Math.copySign((float) Math.pow(Math.abs(value), exponent), value);
+    }
+
+    private static float srgbToLinear(int value) {
+        float v = value / 255f;
+        return v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static int linearToSrgb(float value) {
+        float v = Math.max(0f, Math.min(1f, value));
+        float srgb = v <= 0.0031308f ? v * 12.92f : 1.055f * (float) Math.pow(v, 1 / 2.4f) - 0.055f;
+        return (int) (srgb * 255 + 0.5f);
+    }
+
+    private static void encode83(StringBuilder out, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (value / pow83(length - i)) % 83;
+            out.append(BASE83_CHARS.charAt(digit));
+        }
+    }
+
+    // Returns -1 for characters outside the base83 alphabet
+    private static int decode83(String hash, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = BASE83_CHARS.indexOf(hash.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 83 + digit;
+        }
+        return value;
+    }
+
+    private static int pow83(int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 83;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.finalchatapp.media;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Prepares a picked or captured photo for upload.
+ * Applies the EXIF rotation, downscales to a maximum edge, re-encodes as WebP and
+ * produces a small thumbnail, so neither side moves multi-megabyte camera files around.
+ */
+public class ImageTranscoder {
+
+    public static final int DEFAULT_MAX_EDGE = 1600;
+    public static final int DEFAULT_QUALITY = 80;
+
+    private static final int THUMBNAIL_MAX_EDGE = 320;
+    private static final int THUMBNAIL_QUALITY = 70;
+
+    // The blur placeholder is computed from a tiny copy; more pixels would not change the hash
+    private static final int PLACEHOLDER_SOURCE_EDGE = 32;
+
+    public static final String MIME_TYPE = "image/webp";
+    // Kept out of the cache dir, which the system may clear while an upload is still queued
+    private static final String OUTPUT_DIRECTORY = "outgoing_images";
+
+    public static class Result {
+        public final File fullFile;
+        public final File thumbnailFile;
+        public final int width;
+        public final int height;
+        public final String placeholderHash;
+
+        Result(File fullFile, File thumbnailFile, int width, int height, String placeholderHash) {
+            this.fullFile = fullFile;
+            this.thumbnailFile = thumbnailFile;
+            this.width = width;
+            this.height = height;
+            this.placeholderHash = placeholderHash;
+        }
+    }
+
+    private final Context context;
+    private final int maxEdge;
+    private final int quality;
+
+    public ImageTranscoder(@NonNull Context context) {
+        this(context, DEFAULT_MAX_EDGE, DEFAULT_QUALITY);
+    }
+
+    public ImageTranscoder(@NonNull Context context, int maxEdge, int quality) {
+        this.context = context.getApplicationContext();
+        this.maxEdge = maxEdge;
+        this.quality = quality;
+    }
+
+    @WorkerThread
+    @NonNull
+    public Result transcode(@NonNull Uri source) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+
+        // Read the size without decoding any pixels
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream input = openStream(resolver, source)) {
+            BitmapFactory.decodeStream(input, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unsupported image: " + source);
+        }
+
+        int orientation;
+        try (InputStream input = openStream(resolver, source)) {
+            orientation = new ExifInterface(input).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+
+        // Decode at the smallest power-of-two subsample that still covers the target size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, maxEdge);
+        Bitmap decoded;
+        try (InputStream input = openStream(resolver, source)) {
+            decoded = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("Failed to decode image: " + source);
+        }
+
+        Bitmap full = scaleAndRotate(decoded, maxEdge, orientation, true);
+        Bitmap thumbnail = scaleAndRotate(full, THUMBNAIL_MAX_EDGE, ExifInterface.ORIENTATION_NORMAL, false);
+
+        File directory = new File(context.getFilesDir(), OUTPUT_DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        String name = UUID.randomUUID().toString();
+        File fullFile = new File(directory, name + ".webp");
+        File thumbnailFile = new File(directory, name + "_thumb.webp");
+        try {
+            encode(full, fullFile, quality);
+            encode(thumbnail, thumbnailFile, THUMBNAIL_QUALITY);
+            return new Result(fullFile, thumbnailFile, full.getWidth(), full.getHeight(),
+                    placeholderHash(thumbnail));
+        } finally {
+            if (thumbnail != full) thumbnail.recycle();
+            full.recycle();
+        }
+    }
+
+    private static String placeholderHash(Bitmap thumbnail) {
+        Bitmap small = scaleAndRotate(thumbnail, PLACEHOLDER_SOURCE_EDGE, ExifInterface.ORIENTATION_NORMAL, false);
+        try {
+            return BlurHash.encode(small, BlurHash.DEFAULT_COMPONENTS_X, BlurHash.DEFAULT_COMPONENTS_Y);
+        } finally {
+            if (small != thumbnail) small.recycle();
+        }
+    }
+
+    private static InputStream openStream(ContentResolver resolver, Uri source) throws IOException {
+        InputStream input = resolver.openInputStream(source);
+        if (input == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        return input;
+    }
+
+    static int calculateInSampleSize(int width, int height, int maxEdge) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scale so the longest edge is at most maxEdge and apply the EXIF orientation in a single pass
+     */
+    private static Bitmap scaleAndRotate(Bitmap source, int maxEdge, int orientation, boolean recycleSource) {
+        Matrix matrix = new Matrix();
+
+        int longest = Math.max(source.getWidth(), source.getHeight());
+        if (longest > maxEdge) {
+            float scale = (float) maxEdge / longest;
+            matrix.postScale(scale, scale);
+        }
+
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+        }
+
+        if (matrix.isIdentity()) {
+            return source;
+        }
+
+        Bitmap result = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        if (recycleSource && result != source) {
+            source.recycle();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void encode(Bitmap bitmap, File file, int quality) throws IOException {
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+
+        try (OutputStream output = new FileOutputStream(file)) {
+            if (!bitmap.compress(format, quality, output)) {
+                throw new IOException("Failed to encode " + file);
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@ public class ChatPreview {
     private String lastMessageContent;
     private long lastMessageTimestamp;
     private String lastMessageSenderId;
+    // Messages from the other user since this user last read the chat
+    private long unreadCount;
 
     // Empty constructor for Firestore
     public ChatPreview() {}
@@ -47,4 +49,12 @@ public class ChatPreview {
     public void setLastMessageSenderId(String lastMessageSenderId) {
         this.lastMessageSenderId = lastMessageSenderId;
     }
+
+    public long getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(long unreadCount) {
+        this.unreadCount = unreadCount;
+    }
 }
\ No newline at end of file
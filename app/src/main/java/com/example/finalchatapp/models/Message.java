@@ -1,9 +1,12 @@
 package com.example.finalchatapp.models;
 
+import com.google.firebase.firestore.Exclude;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class Message {
     private String messageId;
@@ -11,10 +14,28 @@ public class Message {
     private String receiverId;
     private String content;
     private String imageUrl;
+    // Image messages: small preview for the list, and the size of the full image
+    private String thumbnailUrl;
+    private int width;
+    private int height;
+    // BlurHash of the image, painted while the thumbnail loads
+    private String placeholderHash;
     private int type;
     private long timestamp;
+    // Position in the chat, assigned from the chat's counter when the outbox sends it; 0 until then
+    private long seq;
     private boolean seen;
     private Map<String, List<String>> reactions;
+    // Local only: summary of reactions for summaryUserId, rebuilt after the reactions change
+    private ReactionSummary reactionSummary;
+    private String summaryUserId;
+
+    // Local only: written to the outbox but not yet acknowledged by Firestore
+    private boolean pending;
+    // Local only: sent message has reached the receiver's device; seen means they have read it
+    private boolean delivered;
+    // Local only: upload progress in percent of a pending image message, or -1 when nothing is uploading
+    private int uploadProgress = -1;
 
 
     public static final int TYPE_TEXT = 0;
@@ -51,6 +72,33 @@ public class Message {
     }
 
 
+    // Copy constructor, used to publish a changed message as a new instance so list diffing sees it
+    public Message(Message other) {
+        this.messageId = other.messageId;
+        this.senderId = other.senderId;
+        this.receiverId = other.receiverId;
+        this.content = other.content;
+        this.imageUrl = other.imageUrl;
+        this.thumbnailUrl = other.thumbnailUrl;
+        this.width = other.width;
+        this.height = other.height;
+        this.placeholderHash = other.placeholderHash;
+        this.type = other.type;
+        this.timestamp = other.timestamp;
+        this.seq = other.seq;
+        this.seen = other.seen;
+        this.delivered = other.delivered;
+        this.pending = other.pending;
+        this.uploadProgress = other.uploadProgress;
+        this.reactions = new HashMap<>();
+        if (other.reactions != null) {
+            for (Map.Entry<String, List<String>> entry : other.reactions.entrySet()) {
+                this.reactions.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+    }
+
+
     public String getMessageId() {
         return messageId;
     }
@@ -91,6 +139,14 @@ public class Message {
         this.timestamp = timestamp;
     }
 
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
     public boolean isSeen() {
         return seen;
     }
@@ -100,6 +156,36 @@ public class Message {
     }
 
 
+    @Exclude
+    public boolean isDelivered() {
+        return delivered;
+    }
+
+    @Exclude
+    public void setDelivered(boolean delivered) {
+        this.delivered = delivered;
+    }
+
+    @Exclude
+    public boolean isPending() {
+        return pending;
+    }
+
+    @Exclude
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    @Exclude
+    public int getUploadProgress() {
+        return uploadProgress;
+    }
+
+    @Exclude
+    public void setUploadProgress(int uploadProgress) {
+        this.uploadProgress = uploadProgress;
+    }
+
     public String getImageUrl() {
         return imageUrl;
     }
@@ -108,6 +194,38 @@ public class Message {
         this.imageUrl = imageUrl;
     }
 
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public String getPlaceholderHash() {
+        return placeholderHash;
+    }
+
+    public void setPlaceholderHash(String placeholderHash) {
+        this.placeholderHash = placeholderHash;
+    }
+
     public int getType() {
         return type;
     }
@@ -122,6 +240,19 @@ public class Message {
 
     public void setReactions(Map<String, List<String>> reactions) {
         this.reactions = reactions;
+        this.reactionSummary = null;
+    }
+
+    /**
+     * Per-emoji counts and the emojis this user picked
+     */
+    @Exclude
+    public ReactionSummary getReactionSummary(String userId) {
+        if (reactionSummary == null || !Objects.equals(summaryUserId, userId)) {
+            reactionSummary = ReactionSummary.of(reactions, userId);
+            summaryUserId = userId;
+        }
+        return reactionSummary;
     }
 
     public void addReaction(String emoji, String userId) {
@@ -136,6 +267,7 @@ public class Message {
         if (!reactions.get(emoji).contains(userId)) {
             reactions.get(emoji).add(userId);
         }
+        reactionSummary = null;
     }
 
     public void removeReaction(String emoji, String userId) {
@@ -147,12 +279,11 @@ public class Message {
                 reactions.remove(emoji);
             }
         }
+        reactionSummary = null;
     }
 
     public boolean hasUserReacted(String emoji, String userId) {
-        return reactions != null &&
-                reactions.containsKey(emoji) &&
-                reactions.get(emoji).contains(userId);
+        return getReactionSummary(userId).isMine(emoji);
     }
 
     public int getTotalReactionCount() {
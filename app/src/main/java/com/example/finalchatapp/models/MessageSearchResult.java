@@ -0,0 +1,49 @@
+package com.example.finalchatapp.models;
+
+public class MessageSearchResult {
+    private final String messageId;
+    private final String chatId;
+    private final String senderId;
+    private final String receiverId;
+    private final long timestamp;
+    private final String snippet;
+
+    public MessageSearchResult(String messageId, String chatId, String senderId, String receiverId,
+                               long timestamp, String snippet) {
+        this.messageId = messageId;
+        this.chatId = chatId;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+        this.timestamp = timestamp;
+        this.snippet = snippet;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public String getReceiverId() {
+        return receiverId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    // The participant of the conversation that isn't the current user
+    public String getOtherUserId(String currentUserId) {
+        return currentUserId.equals(senderId) ? receiverId : senderId;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.finalchatapp.models;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, read-only view of a message's reactions as seen by one user:
+ * the distinct emojis, how many people used each, and a bitmask of the ones that user picked.
+ * Built once per message change, so rendering and "did I react" checks never scan the user lists.
+ */
+public final class ReactionSummary {
+
+    // More distinct emojis than fit the mask are still counted, just never marked as mine
+    private static final int MASK_BITS = Long.SIZE;
+
+    static final ReactionSummary EMPTY = new ReactionSummary(new String[0], new int[0], 0L);
+
+    private final String[] emojis;
+    private final int[] counts;
+    private final long mine;
+
+    private ReactionSummary(String[] emojis, int[] counts, long mine) {
+        this.emojis = emojis;
+        this.counts = counts;
+        this.mine = mine;
+    }
+
+    @NonNull
+    static ReactionSummary of(Map<String, List<String>> reactions, String userId) {
+        if (reactions == null || reactions.isEmpty()) {
+            return EMPTY;
+        }
+
+        String[] emojis = new String[reactions.size()];
+        int[] counts = new int[reactions.size()];
+        long mine = 0L;
+        int size = 0;
+        for (Map.Entry<String, List<String>> entry : reactions.entrySet()) {
+            List<String> users = entry.getValue();
+            // Removing the last reaction with arrayRemove leaves an empty list behind
+            if (users == null || users.isEmpty()) {
+                continue;
+            }
+
+            emojis[size] = entry.getKey();
+            counts[size] = users.size();
+            if (userId != null && size < MASK_BITS && users.contains(userId)) {
+                mine |= 1L << size;
+            }
+            size++;
+        }
+
+        if (size < emojis.length) {
+            String[] trimmedEmojis = new String[size];
+            int[] trimmedCounts = new int[size];
+            System.arraycopy(emojis, 0, trimmedEmojis, 0, size);
+            System.arraycopy(counts, 0, trimmedCounts, 0, size);
+            emojis = trimmedEmojis;
+            counts = trimmedCounts;
+        }
+        return new ReactionSummary(emojis, counts, mine);
+    }
+
+    public int size() {
+        return emojis.length;
+    }
+
+    public boolean isEmpty() {
+        return emojis.length == 0;
+    }
+
+    public String emojiAt(int index) {
+        return emojis[index];
+    }
+
+    public int countAt(int index) {
+        return counts[index];
+    }
+
+    public boolean isMineAt(int index) {
+        return index < MASK_BITS && (mine & (1L << index)) != 0;
+    }
+
+    /**
+     * Whether the user this summary was built for reacted with the emoji
+     */
+    public boolean isMine(String emoji) {
+        int index = indexOf(emoji);
+        return index >= 0 && isMineAt(index);
+    }
+
+    public int indexOf(String emoji) {
+        // Distinct emojis per message are a handful, so this is cheaper than a hash lookup
+        for (int i = 0; i < emojis.length; i++) {
+            if (emojis[i].equals(emoji)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.finalchatapp.models;
+
+import com.google.firebase.firestore.Exclude;
+
+/**
+ * How far one participant has received and read a chat, stored in chats/{chatId}/receipts/{userId}.
+ * Positions are per-chat sequences; the timestamps cover messages sent before sequences existed.
+ */
+public class ReadReceipt {
+    private long deliveredSeq;
+    private long deliveredTimestamp;
+    private long readSeq;
+    private long readTimestamp;
+
+    public ReadReceipt() {
+    }
+
+    public ReadReceipt(ReadReceipt other) {
+        this.deliveredSeq = other.deliveredSeq;
+        this.deliveredTimestamp = other.deliveredTimestamp;
+        this.readSeq = other.readSeq;
+        this.readTimestamp = other.readTimestamp;
+    }
+
+    public long getDeliveredSeq() {
+        return deliveredSeq;
+    }
+
+    public void setDeliveredSeq(long deliveredSeq) {
+        this.deliveredSeq = deliveredSeq;
+    }
+
+    public long getDeliveredTimestamp() {
+        return deliveredTimestamp;
+    }
+
+    public void setDeliveredTimestamp(long deliveredTimestamp) {
+        this.deliveredTimestamp = deliveredTimestamp;
+    }
+
+    public long getReadSeq() {
+        return readSeq;
+    }
+
+    public void setReadSeq(long readSeq) {
+        this.readSeq = readSeq;
+    }
+
+    public long getReadTimestamp() {
+        return readTimestamp;
+    }
+
+    public void setReadTimestamp(long readTimestamp) {
+        this.readTimestamp = readTimestamp;
+    }
+
+    @Exclude
+    public boolean isRead(Message message) {
+        return covers(message, readSeq, readTimestamp);
+    }
+
+    @Exclude
+    public boolean isDelivered(Message message) {
+        return isRead(message) || covers(message, deliveredSeq, deliveredTimestamp);
+    }
+
+    /**
+     * Move the read position up to the message. Reading implies delivery.
+     * Returns whether anything moved.
+     */
+    public boolean advanceRead(Message message) {
+        boolean moved = false;
+        if (message.getSeq() > readSeq) {
+            readSeq = message.getSeq();
+            moved = true;
+        }
+        if (message.getTimestamp() > readTimestamp) {
+            readTimestamp = message.getTimestamp();
+            moved = true;
+        }
+        return advanceDelivered(message) || moved;
+    }
+
+    /**
+     * Move the delivered position up to the message. Returns whether anything moved.
+     */
+    public boolean advanceDelivered(Message message) {
+        boolean moved = false;
+        if (message.getSeq() > deliveredSeq) {
+            deliveredSeq = message.getSeq();
+            moved = true;
+        }
+        if (message.getTimestamp() > deliveredTimestamp) {
+            deliveredTimestamp = message.getTimestamp();
+            moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Keep the furthest of both positions
+     */
+    public void merge(ReadReceipt other) {
+        deliveredSeq = Math.max(deliveredSeq, other.deliveredSeq);
+        deliveredTimestamp = Math.max(deliveredTimestamp, other.deliveredTimestamp);
+        readSeq = Math.max(readSeq, other.readSeq);
+        readTimestamp = Math.max(readTimestamp, other.readTimestamp);
+    }
+
+    private static boolean covers(Message message, long seq, long timestamp) {
+        // Sequences don't depend on anyone's clock, so they win whenever both sides have one
+        if (message.getSeq() > 0 && seq > 0) {
+            return message.getSeq() <= seq;
+        }
+        return timestamp > 0 && message.getTimestamp() <= timestamp;
+    }
+}
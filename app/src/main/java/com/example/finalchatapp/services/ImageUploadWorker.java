@@ -0,0 +1,224 @@
+package com.example.finalchatapp.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.finalchatapp.AppExecutors;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.data.PendingUpload;
+import com.example.finalchatapp.media.ImageTranscoder;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads the transcoded files of one image message, then releases the message to the outbox.
+ * Runs under WorkManager so an upload survives leaving the chat screen and process death.
+ * Firebase Storage session URIs are stored locally, so a retried upload resumes from the last acknowledged byte.
+ */
+public class ImageUploadWorker extends Worker {
+    private static final String TAG = "ImageUploadWorker";
+
+    // Every upload carries this tag; chatTag() narrows it to one conversation for the chat screen
+    public static final String TAG_UPLOADS = "image_upload";
+
+    // Progress data published while running
+    public static final String KEY_MESSAGE_ID = "message_id";
+    public static final String KEY_PROGRESS = "progress";
+    // Output of an upload that was given up on. A key of its own, since a chained upload receives
+    // the output of the one before it merged over its input.
+    public static final String KEY_DROPPED_MESSAGE_ID = "dropped_message_id";
+
+    // Uploads queue up in this many chains of unique work, so a burst of photos neither saturates
+    // the connection nor occupies WorkManager's threads, which the outbox needs for text messages
+    private static final int MAX_PARALLEL_UPLOADS = 2;
+    private static final AtomicInteger nextLane = new AtomicInteger();
+
+    private static final long UPLOAD_TIMEOUT_MINUTES = 10;
+
+    private volatile UploadTask currentTask;
+    private int lastReportedProgress = -1;
+
+    public ImageUploadWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static String chatTag(@NonNull String chatId) {
+        return TAG_UPLOADS + "_chat_" + chatId;
+    }
+
+    /**
+     * Schedule the upload of an image already queued with MessageStore.enqueueImageUpload
+     */
+    public static void enqueue(@NonNull Context context, @NonNull String chatId, @NonNull String messageId) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ImageUploadWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
+                .setInputData(new Data.Builder().putString(KEY_MESSAGE_ID, messageId).build())
+                .addTag(TAG_UPLOADS)
+                .addTag(chatTag(chatId))
+                .build();
+
+        // An upload that fails for good ends its chain, so the next one starts a new chain instead
+        int lane = Math.abs(nextLane.getAndIncrement() % MAX_PARALLEL_UPLOADS);
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(TAG_UPLOADS + "_lane_" + lane, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        // Never Result.failure(): it would fail every upload chained after this one
+        String messageId = getInputData().getString(KEY_MESSAGE_ID);
+        if (messageId == null) {
+            return Result.success();
+        }
+
+        MessageStore store = MessageStore.getInstance(getApplicationContext());
+        PendingUpload upload = store.loadUpload(messageId);
+        if (upload == null) {
+            // Already finished by an earlier run
+            return Result.success();
+        }
+
+        File fullFile = new File(upload.full.localPath);
+        File thumbnailFile = new File(upload.thumbnail.localPath);
+        if (!fullFile.exists() || !thumbnailFile.exists()) {
+            Log.e(TAG, "Local files of " + messageId + " are gone, dropping the message");
+            store.cancelUpload(messageId);
+            return Result.success(new Data.Builder().putString(KEY_DROPPED_MESSAGE_ID, messageId).build());
+        }
+
+        try {
+            long totalBytes = thumbnailFile.length() + fullFile.length();
+            reportProgress(messageId, 0, totalBytes);
+
+            // Thumbnail first: it is small and is what the other side sees in the chat
+            String thumbnailUrl = uploadPart(store, upload.messageId, upload.thumbnail, 0, totalBytes);
+            if (isStopped()) {
+                return Result.retry();
+            }
+            String fullUrl = uploadPart(store, upload.messageId, upload.full, thumbnailFile.length(), totalBytes);
+
+            store.completeUpload(messageId, fullUrl, thumbnailUrl);
+        } catch (Exception e) {
+            Log.e(TAG, "Upload of " + messageId + " failed, will retry", e);
+            return Result.retry();
+        } finally {
+            currentTask = null;
+        }
+
+        deleteQuietly(fullFile);
+        deleteQuietly(thumbnailFile);
+        OutboxWorker.enqueue(getApplicationContext());
+        return Result.success();
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+
+        // Unblock doWork; the stored session lets the next run pick up where this one stopped
+        UploadTask task = currentTask;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    private String uploadPart(MessageStore store, String messageId, PendingUpload.Part part,
+                              long bytesBefore, long totalBytes) throws Exception {
+        if (part.downloadUrl != null) {
+            return part.downloadUrl;
+        }
+
+        StorageReference ref = FirebaseStorage.getInstance().getReference().child(storagePath(messageId, part.name));
+        Uri file = Uri.fromFile(new File(part.localPath));
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(ImageTranscoder.MIME_TYPE)
+                .build();
+
+        UploadTask task = part.sessionUri != null
+                ? ref.putFile(file, metadata, Uri.parse(part.sessionUri))
+                : ref.putFile(file, metadata);
+        currentTask = task;
+
+        AtomicBoolean sessionSaved = new AtomicBoolean(part.sessionUri != null);
+        task.addOnProgressListener(AppExecutors.diskIO(), snapshot -> {
+            Uri sessionUri = snapshot.getUploadSessionUri();
+            if (sessionUri != null && sessionSaved.compareAndSet(false, true)) {
+                store.saveUploadSession(messageId, part.name, sessionUri.toString());
+            }
+            reportProgress(messageId, bytesBefore + snapshot.getBytesTransferred(), totalBytes);
+        });
+
+        try {
+            Tasks.await(task, UPLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (ExecutionException e) {
+            if (part.sessionUri != null && e.getCause() instanceof StorageException
+                    && !((StorageException) e.getCause()).getIsRecoverableException()) {
+                // The session expired or was rejected, start this file over on the next attempt
+                store.saveUploadSession(messageId, part.name, null);
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            // Stop it transferring in the background; the stored session lets the retry resume it
+            task.cancel();
+            throw e;
+        }
+
+        String downloadUrl = Tasks.await(ref.getDownloadUrl(), UPLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES).toString();
+        store.saveUploadUrl(messageId, part.name, downloadUrl);
+        return downloadUrl;
+    }
+
+    private static String storagePath(String messageId, String part) {
+        return PendingUpload.PART_THUMBNAIL.equals(part)
+                ? "chat_images/thumbnails/" + messageId + ".webp"
+                : "chat_images/" + messageId + ".webp";
+    }
+
+    private synchronized void reportProgress(String messageId, long bytesDone, long totalBytes) {
+        int progress = totalBytes > 0 ? (int) (100 * bytesDone / totalBytes) : 0;
+        if (progress == lastReportedProgress) {
+            return;
+        }
+        lastReportedProgress = progress;
+
+        setProgressAsync(new Data.Builder()
+                .putString(KEY_MESSAGE_ID, messageId)
+                .putInt(KEY_PROGRESS, progress)
+                .build());
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+}
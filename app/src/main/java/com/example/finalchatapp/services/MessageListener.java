@@ -6,20 +6,33 @@ import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.NonNull;
-
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.finalchatapp.AppExecutors;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.data.ProcessedMessageIds;
+import com.example.finalchatapp.data.ReceiptWriter;
+import com.example.finalchatapp.data.SnapshotDispatcher;
+import com.example.finalchatapp.data.UserProfileRepository;
+import com.example.finalchatapp.models.Message;
+import com.example.finalchatapp.models.User;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -34,21 +47,26 @@ public class MessageListener {
     // Use ConcurrentHashMap for thread safety
     private static final Map<String, ListenerRegistration> activeListeners = new ConcurrentHashMap<>();
 
-
-    private static final Set<String> processedMessageIds = Collections.synchronizedSet(new HashSet<>());
-
-    // Cache user names to avoid frequent Firestore queries (thread-safe)
-    private static final Map<String, String> userCache = new ConcurrentHashMap<>();
-
     // Use WeakReference to prevent memory leaks
     private static WeakReference<Context> contextRef;
 
-    // Maximum size for processed message IDs cache
-    private static final int MAX_PROCESSED_IDS = 1000;
-
     // Flag to track if listeners are already running
     private static boolean isRunning = false;
 
+    private static final String INBOX_LISTENER_KEY = "inbox";
+
+    // Only messages after this time are listened to
+    private static volatile long inboxCursor = 0;
+
+    // How far behind this device's clock a sender's timestamps may be
+    private static final long CLOCK_SKEW_MS = 60 * 1000;
+
+    // Bumped whenever the listeners stop, so work still in flight for them is dropped
+    private static volatile int listenerGeneration = 0;
+
+    // Re-listen from the newest message once the listener's result set holds this many
+    private static final int RESUBSCRIBE_AFTER = 200;
+
 
     public static synchronized void startMessageListeners(@NonNull Context context) {
 
@@ -67,224 +85,187 @@ public class MessageListener {
         }
 
         String currentUserId = currentUser.getUid();
-        Log.d(TAG, "Starting message listeners for user: " + currentUserId);
+        Log.d(TAG, "Starting inbox listener for user: " + currentUserId);
 
 
         isRunning = true;
 
 
-        cleanupProcessedMessageIds();
-
-
-        FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(currentUserId)
-                .collection("chats")
-                .get()
-                .addOnSuccessListener(chatSnapshots -> {
-
-                    Context appContext = contextRef.get();
-                    if (appContext == null) {
-                        Log.e(TAG, "Context no longer available, canceling setup");
-                        cleanup();
-                        return;
-                    }
-
-
-                    for (DocumentSnapshot chatDoc : chatSnapshots.getDocuments()) {
-                        String otherUserId = chatDoc.getId();
-                        setupChatListener(appContext, currentUserId, otherUserId);
-                    }
+        // Older messages are the notification check's job; the skew margin covers senders whose clock is behind
+        inboxCursor = Math.max(inboxCursor, System.currentTimeMillis() - CLOCK_SKEW_MS);
+        setupInboxListener(currentUserId);
+    }
 
+    // One snapshot's new messages, parsed off the main thread
+    private static class IncomingBatch {
+        final List<IncomingMessage> messages = new ArrayList<>();
+        long newest;
+        int resultSize;
+    }
 
-                    setupNewChatsListener(appContext, currentUserId);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error fetching user's chats: " + e.getMessage());
+    private static class IncomingMessage {
+        final String chatId;
+        final Message message;
 
-                    isRunning = false;
-                });
+        IncomingMessage(String chatId, Message message) {
+            this.chatId = chatId;
+            this.message = message;
+        }
     }
 
     /**
-     * Listen for new chats being created
+     * One listener for every message sent to this user, whatever the chat, instead of one per chat.
+     * Needs a collection group index on messages (receiverId ASC, timestamp ASC).
      */
-    private static void setupNewChatsListener(@NonNull Context context, String currentUserId) {
+    private static void setupInboxListener(String currentUserId) {
 
-        if (activeListeners.containsKey("new_chats")) {
-            Log.d(TAG, "New chats listener already active");
+        if (activeListeners.containsKey(INBOX_LISTENER_KEY)) {
+            Log.d(TAG, "Inbox listener already active");
             return;
         }
 
-        Log.d(TAG, "Setting up new chats listener");
-
-
-        ListenerRegistration registration = FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(currentUserId)
-                .collection("chats")
-                .addSnapshotListener(MetadataChanges.INCLUDE, (snapshots, e) -> {
+        Log.d(TAG, "Setting up inbox listener from " + inboxCursor);
+
+
+        Query inbox = FirebaseFirestore.getInstance()
+                .collectionGroup("messages")
+                .whereEqualTo("receiverId", currentUserId)
+                .whereGreaterThan("timestamp", inboxCursor)
+                .orderBy("timestamp", Query.Direction.ASCENDING);
+
+        // Parsing happens on the snapshots executor; nothing is delivered once the listener is stopped
+        ListenerRegistration registration = SnapshotDispatcher.listen(inbox, MessageListener::parseIncoming,
+                new SnapshotDispatcher.Receiver<IncomingBatch>() {
+                    @Override
+                    public void onParsed(@NonNull IncomingBatch batch) {
+                        Context appContext = contextRef != null ? contextRef.get() : null;
+                        if (appContext == null) {
+                            Log.e(TAG, "Context no longer available, removing listener");
+                            ListenerRegistration reg = activeListeners.remove(INBOX_LISTENER_KEY);
+                            if (reg != null) reg.remove();
+                            return;
+                        }
 
-                    Context appContext = contextRef.get();
-                    if (appContext == null) {
-                        Log.e(TAG, "Context no longer available, removing listener");
-                        ListenerRegistration reg = activeListeners.remove("new_chats");
-                        if (reg != null) reg.remove();
-                        return;
-                    }
+                        onIncomingMessages(appContext, currentUserId, batch.messages);
 
-                    if (e != null) {
-                        Log.e(TAG, "Listen for new chats failed: ", e);
-                        return;
+                        // The result set grows with every message of the session; start over from the newest one
+                        if (batch.resultSize >= RESUBSCRIBE_AFTER) {
+                            Log.d(TAG, "Moving inbox listener past " + batch.resultSize + " messages");
+                            ListenerRegistration reg = activeListeners.remove(INBOX_LISTENER_KEY);
+                            if (reg == null) return;
+                            reg.remove();
+                            inboxCursor = batch.newest - CLOCK_SKEW_MS;
+                            setupInboxListener(currentUserId);
+                        }
                     }
 
-                    if (snapshots == null) return;
-
-
-                    for (DocumentChange dc : snapshots.getDocumentChanges()) {
-                        if (dc.getType() == DocumentChange.Type.ADDED) {
-                            String otherUserId = dc.getDocument().getId();
-                            Log.d(TAG, "New chat detected with user: " + otherUserId);
-
-
-                            setupChatListener(appContext, currentUserId, otherUserId);
-                        }
+                    @Override
+                    public void onError(@NonNull FirebaseFirestoreException error) {
+                        Log.e(TAG, "Listen for messages failed: ", error);
                     }
                 });
 
 
-        activeListeners.put("new_chats", registration);
+        activeListeners.put(INBOX_LISTENER_KEY, registration);
     }
 
-    /**
-     * Setup a listener for messages in a specific chat
-     */
-    private static void setupChatListener(@NonNull Context context, String currentUserId, String otherUserId) {
-
-        String listenerKey = "chat_" + currentUserId + "_" + otherUserId;
-
-
-        if (activeListeners.containsKey(listenerKey)) {
-            Log.d(TAG, "Chat listener already exists for: " + otherUserId);
-            return;
+    @WorkerThread
+    @Nullable
+    private static IncomingBatch parseIncoming(@NonNull QuerySnapshot snapshots) {
+        if (snapshots.isEmpty()) {
+            return null;
         }
 
-        Log.d(TAG, "Setting up message listener for chat with: " + otherUserId);
+        IncomingBatch batch = new IncomingBatch();
+        batch.newest = inboxCursor;
+        batch.resultSize = snapshots.size();
+        for (DocumentChange dc : snapshots.getDocumentChanges()) {
+            if (dc.getType() != DocumentChange.Type.ADDED) {
+                continue;
+            }
+            DocumentSnapshot document = dc.getDocument();
 
+            Long timestamp = document.getLong("timestamp");
+            if (timestamp != null) {
+                batch.newest = Math.max(batch.newest, timestamp);
+            }
 
-        String chatId;
-        if (currentUserId.compareTo(otherUserId) < 0) {
-            chatId = currentUserId + "_" + otherUserId;
-        } else {
-            chatId = otherUserId + "_" + currentUserId;
+            Message message = document.toObject(Message.class);
+            if (message == null || message.getSenderId() == null) {
+                continue;
+            }
+            message.setMessageId(document.getId());
+            // chats/{chatId}/messages/{messageId}
+            batch.messages.add(new IncomingMessage(document.getReference().getParent().getParent().getId(), message));
         }
+        return batch;
+    }
 
+    private static void onIncomingMessages(@NonNull Context appContext, String currentUserId,
+                                           List<IncomingMessage> incoming) {
+        if (incoming.isEmpty()) {
+            return;
+        }
+        int generation = listenerGeneration;
 
-        ListenerRegistration registration = FirebaseFirestore.getInstance()
-                .collection("chats")
-                .document(chatId)
-                .collection("messages")
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(20)
-                .addSnapshotListener(MetadataChanges.INCLUDE, (snapshots, e) -> {
-
-                    Context appContext = contextRef.get();
-                    if (appContext == null) {
-                        Log.e(TAG, "Context no longer available, removing listener");
-                        ListenerRegistration reg = activeListeners.remove(listenerKey);
-                        if (reg != null) reg.remove();
-                        return;
-                    }
-
-                    if (e != null) {
-                        Log.e(TAG, "Listen for messages failed: ", e);
-                        return;
-                    }
-
-                    if (snapshots == null || snapshots.isEmpty()) {
-                        return;
-                    }
-
-
-                    for (DocumentChange dc : snapshots.getDocumentChanges()) {
-                        if (dc.getType() == DocumentChange.Type.ADDED) {
-
-                            String messageId = dc.getDocument().getId();
-
-
-                            synchronized (processedMessageIds) {
-                                if (processedMessageIds.contains(messageId)) {
-                                    continue;
-                                }// Add to processed set
-                                processedMessageIds.add(messageId);
-                            }
-
-                            String senderId = dc.getDocument().getString("senderId");
-                            String receiverId = dc.getDocument().getString("receiverId");
-                            String content = dc.getDocument().getString("content");
-
-
-                            cleanupProcessedMessageIds();
-
-
-                            if (senderId != null && senderId.equals(otherUserId) &&
-                                    receiverId != null && receiverId.equals(currentUserId)) {
-
-                                Log.d(TAG, "New message detected from " + otherUserId + ": " + content);
-
-
-                                String cachedName = userCache.get(otherUserId);
-                                if (cachedName != null) {
-
-                                    NotificationService.showDirectNotification(appContext, cachedName, content, otherUserId);
-                                } else {
-
-                                    FirebaseFirestore.getInstance()
-                                            .collection("users")
-                                            .document(otherUserId)
-                                            .get()
-                                            .addOnSuccessListener(userDoc -> {
+        AppExecutors.diskIO().execute(() -> {
+            List<String> messageIds = new ArrayList<>();
+            for (IncomingMessage entry : incoming) {
+                messageIds.add(entry.message.getMessageId());
+            }
+            // Already notified by this listener before a restart, or by the periodic check
+            Set<String> fresh = new HashSet<>(ProcessedMessageIds.getInstance(appContext).markAllProcessed(messageIds));
+
+            List<IncomingMessage> toNotify = new ArrayList<>();
+            for (IncomingMessage entry : incoming) {
+                if (!fresh.contains(entry.message.getMessageId())) {
+                    continue;
+                }
+                // Make the message searchable even if its chat is never opened
+                MessageStore.getInstance(appContext)
+                        .indexMessages(entry.chatId, Collections.singletonList(entry.message));
+                toNotify.add(entry);
+            }
 
-                                                Context ctx = contextRef.get();
-                                                if (ctx == null) return;
+            AppExecutors.runOnMain(() -> {
+                // Stopped, e.g. by logout, while the batch was on disk
+                if (generation != listenerGeneration) return;
 
-                                                String username = userDoc.getString("username");
-                                                if (username == null) username = "User " + otherUserId.substring(0, Math.min(5, otherUserId.length()));
+                for (IncomingMessage entry : toNotify) {
+                    notifyIncoming(appContext, entry.chatId, currentUserId, entry.message,
+                            entry.message.getSenderId(), entry.message.getContent());
+                }
+            });
+        });
+    }
 
+    private static void notifyIncoming(@NonNull Context appContext, String chatId, String currentUserId,
+                                       Message message, String otherUserId, String content) {
 
-                                                userCache.put(otherUserId, username);
+        Log.d(TAG, "New message detected from " + otherUserId + ": " + content);
 
+        // Coalesced with the other messages of this burst into one receipt write
+        ReceiptWriter.getInstance().markDelivered(chatId, currentUserId, message);
 
-                                                NotificationService.showDirectNotification(ctx, username, content, otherUserId);
-                                            })
-                                            .addOnFailureListener(fetchError -> {
 
-                                                Context ctx = contextRef.get();
-                                                if (ctx == null) return;
+        // Messages from one sender arrive in bursts; they share one profile lookup
+        UserProfileRepository.getInstance(appContext).getProfile(otherUserId).addOnCompleteListener(task -> {
 
+            Context ctx = contextRef != null ? contextRef.get() : null;
+            if (ctx == null) return;
 
-                                                NotificationService.showDirectNotification(ctx, "New message", content, otherUserId);
-                                            });
-                                }
-                            }
-                        }
-                    }
-                });
+            User user = task.getResult();
+            if (user == null) {
+                NotificationService.showDirectNotification(ctx, "New message", content, otherUserId);
+                return;
+            }
 
+            String username = user.getUsername();
+            if (username == null) username = "User " + otherUserId.substring(0, Math.min(5, otherUserId.length()));
 
-        activeListeners.put(listenerKey, registration);
-    }
 
-    /**
-     * Clean up the processed message IDs cache if it's too large
-     */
-    private static void cleanupProcessedMessageIds() {
-        synchronized (processedMessageIds) {
-            if (processedMessageIds.size() > MAX_PROCESSED_IDS) {
-                Log.d(TAG, "Cleaning up processed message IDs cache: " + processedMessageIds.size() + " items");
-                processedMessageIds.clear();
-            }
-        }
+            NotificationService.showDirectNotification(ctx, username, content, otherUserId);
+        });
     }
 
     /**
@@ -303,6 +284,7 @@ public class MessageListener {
         }
 
         activeListeners.clear();
+        listenerGeneration++;
         isRunning = false;
     }
 
@@ -312,11 +294,7 @@ public class MessageListener {
     public static synchronized void cleanup() {
         stopAllListeners();
 
-        synchronized (processedMessageIds) {
-            processedMessageIds.clear();
-        }
-
-        userCache.clear();
+        inboxCursor = 0;
 
         if (contextRef != null) {
             contextRef.clear();
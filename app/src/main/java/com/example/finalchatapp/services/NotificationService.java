@@ -14,8 +14,13 @@ import android.util.Log;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import com.example.finalchatapp.AppExecutors;
 import com.example.finalchatapp.MainActivity;
 import com.example.finalchatapp.R;
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.data.ProcessedMessageIds;
+import com.example.finalchatapp.data.UserProfileRepository;
+import com.example.finalchatapp.models.User;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
@@ -38,12 +43,18 @@ public class NotificationService extends BroadcastReceiver {
     public static final int NOTIFICATION_REQUEST_CODE = 42;
 
 
-    private static final Set<String> processedMessageIds = new HashSet<>();
-    private static long lastCheckTime = 0;
+    // Messages older than this when the check finds them don't notify
+    private static final long MAX_NOTIFICATION_AGE_MS = 15 * 60 * 1000;
 
-    private static boolean isFirstCheck = true;
+    // Most messages one check reads from a chat; the rest waits for the next check
+    private static final int SYNC_PAGE_SIZE = 50;
+
+    // How far behind this device's clock a sender's timestamps may be
+    private static final long CLOCK_SKEW_MS = 60 * 1000;
+
+    // Chat summaries last changed before this were already looked at in this process
+    private static volatile long summaryCursor = 0;
 
-    private static final Map<String, String> userCache = new HashMap<>();
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -220,49 +231,46 @@ public class NotificationService extends BroadcastReceiver {
 
     private void checkForNewMessages(Context context) {
 
-        cleanupProcessedMessages();
-
         FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
         if (currentUser == null) {
             Log.d(TAG, "User not logged in, skipping notification check");
             return;
         }
 
+        String currentUserId = currentUser.getUid();
+        Log.d(TAG, "Checking for new messages for user: " + currentUserId);
 
-        if (isFirstCheck) {
-            Log.d(TAG, "First check after startup - recording existing messages but not showing notifications");
-            isFirstCheck = false;
-
-            checkAllMessagesWithoutNotifying(context, currentUser.getUid());
-            return;
-        }
-
-        Log.d(TAG, "Checking for new messages for user: " + currentUser.getUid());
-
-
-        final long checkFromTime = System.currentTimeMillis() - (15 * 60 * 1000);
-
-
+        // Only summaries that changed since the last check; the first check of a process reads them all
+        long cursor = summaryCursor;
         FirebaseFirestore.getInstance()
                 .collection("users")
-                .document(currentUser.getUid())
+                .document(currentUserId)
                 .collection("chats")
+                .whereGreaterThan("lastMessageTimestamp", cursor)
                 .get()
                 .addOnSuccessListener(chatSnapshots -> {
-                    Log.d(TAG, "Found " + chatSnapshots.size() + " chats to check");
+                    Log.d(TAG, "Found " + chatSnapshots.size() + " chats changed since " + new Date(cursor));
 
                     if (chatSnapshots.isEmpty()) {
-                        Log.d(TAG, "No chats found for current user");
                         return;
                     }
 
+                    Map<String, String> otherUserIds = new HashMap<>();
+                    Map<String, Long> lastMessageTimestamps = new HashMap<>();
+                    long newest = cursor;
                     for (QueryDocumentSnapshot chatDoc : chatSnapshots) {
-                        String otherUserId = chatDoc.getId();
-                        Log.d(TAG, "Checking messages from user: " + otherUserId);
-
+                        Long lastMessageTimestamp = chatDoc.getLong("lastMessageTimestamp");
+                        if (lastMessageTimestamp == null) continue;
 
-                        checkChatMessages(context, otherUserId, currentUser.getUid(), checkFromTime);
+                        String otherUserId = chatDoc.getId();
+                        String chatId = chatIdFor(currentUserId, otherUserId);
+                        otherUserIds.put(chatId, otherUserId);
+                        lastMessageTimestamps.put(chatId, lastMessageTimestamp);
+                        newest = Math.max(newest, lastMessageTimestamp);
                     }
+                    summaryCursor = Math.max(summaryCursor, newest - CLOCK_SKEW_MS);
+
+                    syncChats(context, currentUserId, otherUserIds, lastMessageTimestamps);
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Error checking for chats: " + e.getMessage(), e);
@@ -270,161 +278,160 @@ public class NotificationService extends BroadcastReceiver {
     }
 
 
-    private void checkAllMessagesWithoutNotifying(Context context, String currentUserId) {
-
-        FirebaseFirestore.getInstance()
-                .collection("users")
-                .document(currentUserId)
-                .collection("chats")
-                .get()
-                .addOnSuccessListener(chatSnapshots -> {
-                    Log.d(TAG, "Recording existing messages from " + chatSnapshots.size() + " chats");
-
-                    for (QueryDocumentSnapshot chatDoc : chatSnapshots) {
-                        String otherUserId = chatDoc.getId();
-
-
-                        recordExistingMessages(otherUserId, currentUserId);
-                    }
-                });
-    }
-
-
-    private void recordExistingMessages(String otherUserId, String currentUserId) {
-
-        String chatId;
-        if (currentUserId.compareTo(otherUserId) < 0) {
-            chatId = currentUserId + "_" + otherUserId;
-        } else {
-            chatId = otherUserId + "_" + currentUserId;
-        }
-
+    /**
+     * Query each chat whose summary is past its mark, for the messages after the mark only.
+     * A chat seen for the first time starts at its summary, so existing history is never downloaded.
+     */
+    private void syncChats(Context context, String currentUserId, Map<String, String> otherUserIds,
+                           Map<String, Long> lastMessageTimestamps) {
+
+        MessageStore store = MessageStore.getInstance(context);
+        AppExecutors.diskIO().execute(() -> {
+            List<String> chatIds = new ArrayList<>(otherUserIds.keySet());
+            Map<String, Long> marks = store.getNotifiedTimestamps(chatIds);
+
+            Map<String, Long> behind = new HashMap<>();
+            for (String chatId : chatIds) {
+                Long mark = marks.get(chatId);
+                long lastMessageTimestamp = lastMessageTimestamps.get(chatId);
+                if (mark == null) {
+                    Log.d(TAG, "Starting notification mark of " + chatId + " at " + new Date(lastMessageTimestamp));
+                    store.advanceNotifiedTimestamp(chatId, lastMessageTimestamp);
+                } else if (lastMessageTimestamp > mark) {
+                    behind.put(chatId, mark);
+                }
+            }
 
-        FirebaseFirestore.getInstance()
-                .collection("chats")
-                .document(chatId)
-                .collection("messages")
-                .get()
-                .addOnSuccessListener(messages -> {
-                    for (QueryDocumentSnapshot msgDoc : messages) {
-                        processedMessageIds.add(msgDoc.getId());
-                    }
-                    Log.d(TAG, "Recorded " + messages.size() + " existing messages from combined ID");
-                });
+            AppExecutors.runOnMain(() -> {
+                for (Map.Entry<String, Long> entry : behind.entrySet()) {
+                    syncChat(context, entry.getKey(), otherUserIds.get(entry.getKey()), currentUserId, entry.getValue());
+                }
+            });
+        });
     }
 
 
-    private void checkChatMessages(Context context, String otherUserId, String currentUserId, long checkFromTime) {
-
-        long effectiveCheckTime = Math.max(lastCheckTime, checkFromTime);
-
-
-        lastCheckTime = System.currentTimeMillis();
-
-        Log.d(TAG, "Checking for messages newer than: " + new Date(effectiveCheckTime));
-
-
-        String chatId;
-        if (currentUserId.compareTo(otherUserId) < 0) {
-            chatId = currentUserId + "_" + otherUserId;
-        } else {
-            chatId = otherUserId + "_" + currentUserId;
-        }
+    private void syncChat(Context context, String chatId, String otherUserId, String currentUserId, long mark) {
 
+        Log.d(TAG, "Checking " + chatId + " for messages newer than: " + new Date(mark));
 
         FirebaseFirestore.getInstance()
                 .collection("chats")
                 .document(chatId)
                 .collection("messages")
+                .whereGreaterThan("timestamp", mark)
+                .orderBy("timestamp")
+                .limit(SYNC_PAGE_SIZE)
                 .get()
                 .addOnSuccessListener(messages -> {
-                    Log.d(TAG, "Found " + messages.size() + " total messages in chat");
-                    processMessages(context, messages, otherUserId, currentUserId, effectiveCheckTime);
+                    Log.d(TAG, "Found " + messages.size() + " new messages in chat");
+                    processMessages(context, messages, chatId, otherUserId, currentUserId);
                 })
                 .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error checking messages with combined ID: " + e.getMessage());
+                    Log.e(TAG, "Error checking messages of " + chatId + ": " + e.getMessage());
+                    // Look at this chat's summary again next time
+                    summaryCursor = Math.min(summaryCursor, mark);
                 });
     }
 
 
     private void processMessages(Context context, QuerySnapshot messages,
-                                 String otherUserId, String currentUserId, long checkFromTime) {
+                                 String chatId, String otherUserId, String currentUserId) {
 
         if (messages.isEmpty()) return;
 
+        // Messages that waited too long aren't worth a notification anymore, but they still move the mark
+        long notifyFrom = System.currentTimeMillis() - MAX_NOTIFICATION_AGE_MS;
+        long newest = 0;
 
-        List<QueryDocumentSnapshot> relevantMessages = new ArrayList<>();
+        List<QueryDocumentSnapshot> candidates = new ArrayList<>();
+        List<String> candidateIds = new ArrayList<>();
 
         for (QueryDocumentSnapshot msgDoc : messages) {
-            String messageId = msgDoc.getId();
             String senderId = msgDoc.getString("senderId");
             String receiverId = msgDoc.getString("receiverId");
             Long timestamp = msgDoc.getLong("timestamp");
-            String content = msgDoc.getString("content");
-
-
-            if (processedMessageIds.contains(messageId)) {
-                continue;
-            }
+            if (timestamp == null) continue;
+            newest = Math.max(newest, timestamp);
 
 
             if (senderId != null && senderId.equals(otherUserId) &&
                     receiverId != null && receiverId.equals(currentUserId) &&
-                    timestamp != null && timestamp > checkFromTime) {
-
-                Log.d(TAG, "New message qualifies for notification: " + content);
-                relevantMessages.add(msgDoc);
-
+                    timestamp > notifyFrom) {
 
-                processedMessageIds.add(messageId);
+                candidates.add(msgDoc);
+                candidateIds.add(msgDoc.getId());
             }
         }
 
+        // A full page leaves the rest for the next check, which starts where this one ended
+        if (messages.size() >= SYNC_PAGE_SIZE) {
+            summaryCursor = Math.min(summaryCursor, newest);
+        }
 
-        if (!relevantMessages.isEmpty()) {
-
-            QueryDocumentSnapshot latestMsg = relevantMessages.get(relevantMessages.size() - 1);
-            String content = latestMsg.getString("content");
-
-            if (userCache.containsKey(otherUserId)) {
-                String username = userCache.get(otherUserId);
-                showNotification(context, username, content, otherUserId);
+        MessageStore store = MessageStore.getInstance(context);
+        ProcessedMessageIds processed = ProcessedMessageIds.getInstance(context);
+        long mark = newest;
+        AppExecutors.diskIO().execute(() -> {
+            if (mark > 0) {
+                store.advanceNotifiedTimestamp(chatId, mark);
+            }
+            if (candidates.isEmpty()) {
+                Log.d(TAG, "No new unprocessed messages found that qualify for notification");
                 return;
             }
 
+            // Drop what the live listener already notified about, before or after a restart
+            Set<String> added = new HashSet<>(processed.markAllProcessed(candidateIds));
 
-            FirebaseFirestore.getInstance()
-                    .collection("users")
-                    .document(otherUserId)
-                    .get()
-                    .addOnSuccessListener(userDoc -> {
-                        String username = userDoc.getString("username");
-                        if (username == null) username = "User " + otherUserId.substring(0, 5);
+            AppExecutors.runOnMain(() -> {
+                List<QueryDocumentSnapshot> relevantMessages = new ArrayList<>();
+                for (QueryDocumentSnapshot msgDoc : candidates) {
+                    if (added.contains(msgDoc.getId())) {
+                        Log.d(TAG, "New message qualifies for notification: " + msgDoc.getString("content"));
+                        relevantMessages.add(msgDoc);
+                    }
+                }
+                notifyLatest(context, relevantMessages, otherUserId);
+            });
+        });
+    }
 
 
-                        userCache.put(otherUserId, username);
+    private static String chatIdFor(String currentUserId, String otherUserId) {
+        if (currentUserId.compareTo(otherUserId) < 0) {
+            return currentUserId + "_" + otherUserId;
+        }
+        return otherUserId + "_" + currentUserId;
+    }
 
-                        Log.d(TAG, "Showing notification from " + username + ": " + content);
 
+    private void notifyLatest(Context context, List<QueryDocumentSnapshot> relevantMessages, String otherUserId) {
 
-                        showNotification(context, username, content, otherUserId);
-                    })
-                    .addOnFailureListener(e -> {
+        if (!relevantMessages.isEmpty()) {
 
-                        Log.e(TAG, "Error getting username: " + e.getMessage());
-                        showNotification(context, "New message", content, otherUserId);
-                    });
-        } else {
-            Log.d(TAG, "No new unprocessed messages found that qualify for notification");
-        }
-    }
+            QueryDocumentSnapshot latestMsg = relevantMessages.get(relevantMessages.size() - 1);
+            String content = latestMsg.getString("content");
 
+            // Shared with the live listener, which may be looking up the same sender right now
+            UserProfileRepository.getInstance(context).getProfile(otherUserId).addOnCompleteListener(task -> {
+                User user = task.getResult();
+                if (user == null) {
+                    Log.e(TAG, "Error getting username for " + otherUserId);
+                    showNotification(context, "New message", content, otherUserId);
+                    return;
+                }
 
-    private void cleanupProcessedMessages() {
+                String username = user.getUsername();
+                if (username == null) username = "User " + otherUserId.substring(0, Math.min(5, otherUserId.length()));
 
-        if (processedMessageIds.size() > 1000) {
-            Log.d(TAG, "Cleaning up processed message IDs cache");
-            processedMessageIds.clear();
+                Log.d(TAG, "Showing notification from " + username + ": " + content);
+
+
+                showNotification(context, username, content, otherUserId);
+            });
+        } else {
+            Log.d(TAG, "No new unprocessed messages found that qualify for notification");
         }
     }
 
@@ -0,0 +1,228 @@
+package com.example.finalchatapp.services;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.finalchatapp.data.MessageStore;
+import com.example.finalchatapp.models.Message;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flushes the local outbox to Firestore.
+ * Everything queued while the previous commit was in flight goes out together in one transaction,
+ * along with both users' chat summaries, so the message and the chat lists change atomically.
+ * The transaction also numbers the messages from each chat's sequence counter in chats/{chatId},
+ * so every client can tell exactly which messages it is missing.
+ * WorkManager persists the work across process restarts, waits for connectivity and retries with exponential backoff.
+ */
+public class OutboxWorker extends Worker {
+    private static final String TAG = "OutboxWorker";
+    private static final String UNIQUE_WORK_NAME = "outbox_flush";
+
+    // Firestore allows 500 writes per transaction; each chat adds its counter and two summary writes
+    private static final int MAX_BATCH_WRITES = 500;
+    private static final int WRITES_PER_CHAT = 3;
+    private static final int MAX_BATCH_SIZE = 400;
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+    public OutboxWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Schedule a flush. Appending keeps a message queued during a running flush from being missed.
+     */
+    public static void enqueue(@NonNull Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(OutboxWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.SECONDS)
+                .build();
+
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) {
+            Log.d(TAG, "User not logged in, leaving outbox for later");
+            return Result.success();
+        }
+
+        MessageStore store = MessageStore.getInstance(getApplicationContext());
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+
+        while (!isStopped()) {
+            List<MessageStore.OutgoingMessage> batch = store.loadOutboxBatch(MAX_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return Result.success();
+            }
+
+            List<MessageStore.OutgoingMessage> sending = new ArrayList<>(batch.size());
+            List<String> messageIds = new ArrayList<>(batch.size());
+            // Latest message per chat, for the chat list summaries
+            Map<String, Message> latestByChat = new LinkedHashMap<>();
+
+            for (MessageStore.OutgoingMessage outgoing : batch) {
+                int chatWrites = WRITES_PER_CHAT * (latestByChat.size() + (latestByChat.containsKey(outgoing.chatId) ? 0 : 1));
+                if (messageIds.size() + 1 + chatWrites > MAX_BATCH_WRITES) {
+                    // The rest goes out in the next iteration
+                    break;
+                }
+
+                sending.add(outgoing);
+                messageIds.add(outgoing.message.getMessageId());
+                latestByChat.put(outgoing.chatId, outgoing.message);
+            }
+
+            long commitStart = SystemClock.elapsedRealtime();
+            try {
+                Tasks.await(db.runTransaction(transaction -> {
+                    sendInTransaction(db, transaction, sending, latestByChat);
+                    return null;
+                }), COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to flush " + messageIds.size() + " messages, will retry", e);
+                store.recordOutboxAttempt(messageIds);
+                return Result.retry();
+            }
+
+            reportLatency(batch, messageIds.size(), SystemClock.elapsedRealtime() - commitStart);
+            store.removeFromOutbox(messageIds);
+        }
+
+        return Result.success();
+    }
+
+    /**
+     * Number and write the messages. Runs again from the start if another sender moves a counter meanwhile.
+     */
+    private void sendInTransaction(FirebaseFirestore db, Transaction transaction,
+                                   List<MessageStore.OutgoingMessage> sending,
+                                   Map<String, Message> latestByChat) throws FirebaseFirestoreException {
+        // All reads have to happen before the first write
+        Map<String, Long> counters = new HashMap<>();
+        for (String chatId : latestByChat.keySet()) {
+            Long seq = transaction.get(db.collection("chats").document(chatId)).getLong("seq");
+            counters.put(chatId, seq != null ? seq : 0L);
+        }
+
+        // A send that timed out may have been committed anyway; keep the number it got then
+        Map<String, Long> committedSeqs = new HashMap<>();
+        for (MessageStore.OutgoingMessage outgoing : sending) {
+            if (outgoing.attempts > 0) {
+                Long seq = transaction.get(messageRef(db, outgoing)).getLong("seq");
+                if (seq != null) {
+                    committedSeqs.put(outgoing.message.getMessageId(), seq);
+                }
+            }
+        }
+
+        // Messages the receiver hasn't been counted for yet, per chat
+        Map<String, Integer> unreadByChat = new HashMap<>();
+        for (MessageStore.OutgoingMessage outgoing : sending) {
+            Long seq = committedSeqs.get(outgoing.message.getMessageId());
+            if (seq == null) {
+                seq = counters.get(outgoing.chatId) + 1;
+                counters.put(outgoing.chatId, seq);
+                Integer unread = unreadByChat.get(outgoing.chatId);
+                unreadByChat.put(outgoing.chatId, unread != null ? unread + 1 : 1);
+            }
+            outgoing.message.setSeq(seq);
+            transaction.set(messageRef(db, outgoing), outgoing.message);
+        }
+
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            Map<String, Object> chat = new HashMap<>();
+            chat.put("seq", counter.getValue());
+            transaction.set(db.collection("chats").document(counter.getKey()), chat, SetOptions.merge());
+        }
+
+        for (Map.Entry<String, Message> latest : latestByChat.entrySet()) {
+            Integer unread = unreadByChat.get(latest.getKey());
+            addChatInfo(db, transaction, latest.getValue(), unread != null ? unread : 0, counters.get(latest.getKey()));
+        }
+    }
+
+    private static DocumentReference messageRef(FirebaseFirestore db, MessageStore.OutgoingMessage outgoing) {
+        return db.collection("chats").document(outgoing.chatId)
+                .collection("messages").document(outgoing.message.getMessageId());
+    }
+
+    /**
+     * Add the chat summary shown in both users' chat lists to the transaction.
+     * The receiver's unread count goes up by the number of new messages without reading it first,
+     * and lastIncomingSeq records the newest of them; their read receipt resets the count once it gets there.
+     */
+    private void addChatInfo(FirebaseFirestore db, Transaction transaction, Message message, int newMessages,
+                             long newestSeq) {
+        Map<String, Object> chatInfo = new HashMap<>();
+
+        // For text messages, use content. For image messages, use a placeholder text
+        String lastMessageContent = message.getType() == Message.TYPE_IMAGE ?
+                "📷 Image" : message.getContent();
+
+        chatInfo.put("lastMessageContent", lastMessageContent);
+        chatInfo.put("lastMessageTimestamp", message.getTimestamp());
+        chatInfo.put("lastMessageSenderId", message.getSenderId());
+
+        // Merged so the unread counts kept in the same documents survive
+        transaction.set(db.collection("users").document(message.getSenderId())
+                .collection("chats").document(message.getReceiverId()), chatInfo, SetOptions.merge());
+
+        Map<String, Object> receiverInfo = new HashMap<>(chatInfo);
+        if (newMessages > 0) {
+            receiverInfo.put("unreadCount", FieldValue.increment(newMessages));
+            receiverInfo.put("lastIncomingSeq", newestSeq);
+        }
+        transaction.set(db.collection("users").document(message.getReceiverId())
+                .collection("chats").document(message.getSenderId()), receiverInfo, SetOptions.merge());
+    }
+
+    /**
+     * Log how long the commit round trip took and how long messages waited from send to acknowledgement
+     */
+    private void reportLatency(List<MessageStore.OutgoingMessage> batch, int committed, long commitMillis) {
+        long now = System.currentTimeMillis();
+        long totalWait = 0;
+        long maxWait = 0;
+        for (int i = 0; i < committed; i++) {
+            long wait = Math.max(0, now - batch.get(i).message.getTimestamp());
+            totalWait += wait;
+            maxWait = Math.max(maxWait, wait);
+        }
+
+        Log.i(TAG, "Committed " + committed + " messages in one transaction: commit " + commitMillis + " ms, "
+                + "send-to-ack avg " + (totalWait / committed) + " ms, max " + maxWait + " ms");
+    }
+}
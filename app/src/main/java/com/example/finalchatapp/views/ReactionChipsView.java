@@ -0,0 +1,217 @@
+package com.example.finalchatapp.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.example.finalchatapp.R;
+import com.example.finalchatapp.adapters.MessageRow;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Draws the reaction chips under a message bubble in a single view.
+ * Chips are measured only when their content changes; binding the same chips again and
+ * drawing allocate nothing. Chips wrap onto further lines when they don't fit.
+ */
+public class ReactionChipsView extends View {
+
+    public interface OnChipClickListener {
+        void onChipClick(@NonNull String emoji);
+    }
+
+    private static final int TEXT_COLOR = 0xFF757575;
+    private static final int TEXT_COLOR_MINE = 0xFF000000;
+
+    private final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Drawable chipBackground;
+    private final int chipPaddingHorizontal;
+    private final int chipPaddingVertical;
+    private final int chipSpacing;
+    private final int chipHeight;
+    private final float textBaseline;
+
+    private List<MessageRow.ReactionChip> chips = Collections.emptyList();
+    // Per chip, recomputed only when the chips change or the view is measured
+    private float[] chipWidths = new float[0];
+    private float[] chipLefts = new float[0];
+    private int[] chipLines = new int[0];
+
+    private int pressedIndex = -1;
+    private OnChipClickListener listener;
+
+    public ReactionChipsView(Context context) {
+        this(context, null);
+    }
+
+    public ReactionChipsView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+                getResources().getDisplayMetrics()));
+        chipBackground = ContextCompat.getDrawable(context, R.drawable.reaction_background);
+        chipPaddingHorizontal = dp(6);
+        chipPaddingVertical = dp(2);
+        chipSpacing = dp(4);
+
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        chipHeight = (int) Math.ceil(metrics.descent - metrics.ascent) + 2 * chipPaddingVertical;
+        textBaseline = chipPaddingVertical - metrics.ascent;
+    }
+
+    public void setOnChipClickListener(@Nullable OnChipClickListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Show these chips. A list equal to the current one is a no-op.
+     */
+    public void setChips(@NonNull List<MessageRow.ReactionChip> newChips) {
+        if (sameChips(newChips)) {
+            return;
+        }
+
+        chips = newChips;
+        setVisibility(newChips.isEmpty() ? GONE : VISIBLE);
+
+        int count = newChips.size();
+        if (chipWidths.length < count) {
+            chipWidths = new float[count];
+            chipLefts = new float[count];
+            chipLines = new int[count];
+        }
+
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            MessageRow.ReactionChip chip = newChips.get(i);
+            chipWidths[i] = textPaint.measureText(chip.label) + 2 * chipPaddingHorizontal;
+            if (i > 0) description.append(", ");
+            description.append(chip.label);
+        }
+        setContentDescription(description);
+
+        requestLayout();
+        invalidate();
+    }
+
+    // Index loop rather than List.equals, which would allocate iterators on every bind
+    private boolean sameChips(List<MessageRow.ReactionChip> newChips) {
+        if (newChips == chips) {
+            return true;
+        }
+        if (newChips.size() != chips.size()) {
+            return false;
+        }
+        for (int i = 0; i < newChips.size(); i++) {
+            if (!newChips.get(i).equals(chips.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int maxWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                ? Integer.MAX_VALUE
+                : MeasureSpec.getSize(widthMeasureSpec);
+        int available = maxWidth - getPaddingLeft() - getPaddingRight();
+
+        float x = 0f;
+        float widest = 0f;
+        int line = 0;
+        for (int i = 0; i < chips.size(); i++) {
+            if (x > 0f && x + chipWidths[i] > available) {
+                line++;
+                x = 0f;
+            }
+            chipLefts[i] = x;
+            chipLines[i] = line;
+            widest = Math.max(widest, x + chipWidths[i]);
+            x += chipWidths[i] + chipSpacing;
+        }
+
+        int lines = chips.isEmpty() ? 0 : line + 1;
+        int width = (int) Math.ceil(widest) + getPaddingLeft() + getPaddingRight();
+        int height = lines * chipHeight + Math.max(0, lines - 1) * chipSpacing
+                + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        for (int i = 0; i < chips.size(); i++) {
+            MessageRow.ReactionChip chip = chips.get(i);
+            int left = getPaddingLeft() + (int) chipLefts[i];
+            int top = chipTop(i);
+
+            if (chipBackground != null) {
+                chipBackground.setBounds(left, top, left + (int) Math.ceil(chipWidths[i]), top + chipHeight);
+                chipBackground.draw(canvas);
+            }
+
+            textPaint.setColor(chip.reactedByMe ? TEXT_COLOR_MINE : TEXT_COLOR);
+            canvas.drawText(chip.label, left + chipPaddingHorizontal, top + textBaseline, textPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                pressedIndex = chipAt(event.getX(), event.getY());
+                return pressedIndex >= 0;
+            case MotionEvent.ACTION_UP:
+                int index = chipAt(event.getX(), event.getY());
+                if (pressedIndex >= 0 && index == pressedIndex) {
+                    performClick();
+                    if (listener != null) {
+                        listener.onChipClick(chips.get(index).emoji);
+                    }
+                }
+                pressedIndex = -1;
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                pressedIndex = -1;
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    private int chipAt(float x, float y) {
+        for (int i = 0; i < chips.size(); i++) {
+            float left = getPaddingLeft() + chipLefts[i];
+            int top = chipTop(i);
+            if (x >= left && x <= left + chipWidths[i] && y >= top && y <= top + chipHeight) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int chipTop(int index) {
+        return getPaddingTop() + chipLines[index] * (chipHeight + chipSpacing);
+    }
+
+    private int dp(int value) {
+        return Math.round(value * getResources().getDisplayMetrics().density);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.finalchatapp.data;
+
+import com.example.finalchatapp.models.Message;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rough timings of ConversationBuffer against the list-plus-scan approach ChatActivity used before,
+ * for a 100k message conversation. Prints results and only checks correctness, never timings.
+ * Excluded from the regular test run; run with ./gradlew testDebugUnitTest -Pbenchmarks.
+ */
+public class ConversationBufferBenchmark {
+
+    private static final int MESSAGES = 100_000;
+    private static final int LOOKUPS = 10_000;
+    private static final int ROUNDS = 3;
+
+    private static List<Message> createMessages() {
+        List<Message> messages = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            Message message = new Message("m" + i, "sender", "receiver", "text");
+            message.setTimestamp(1_000_000L + i);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Test
+    public void appendInOrder() {
+        List<Message> messages = createMessages();
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            ConversationBuffer buffer = new ConversationBuffer();
+            for (Message message : messages) {
+                buffer.upsert(message);
+            }
+            long bufferNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Message> list = new ArrayList<>();
+            Set<String> ids = new HashSet<>();
+            for (Message message : messages) {
+                if (ids.add(message.getMessageId())) {
+                    list.add(message);
+                }
+            }
+            long listNanos = System.nanoTime() - start;
+
+            assertEquals(MESSAGES, buffer.size());
+            report("append in order", bufferNanos, listNanos);
+        }
+    }
+
+    @Test
+    public void insertOutOfOrder() {
+        List<Message> shuffled = createMessages();
+        Collections.shuffle(shuffled, new Random(42));
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            ConversationBuffer buffer = new ConversationBuffer();
+            for (Message message : shuffled) {
+                buffer.upsert(message);
+            }
+            long bufferNanos = System.nanoTime() - start;
+
+            // The old list only appended, so it needed a full sort to reach the same order
+            start = System.nanoTime();
+            List<Message> list = new ArrayList<>(shuffled);
+            Collections.sort(list, ConversationBuffer.ORDER);
+            long listNanos = System.nanoTime() - start;
+
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals(list.get(i), buffer.get(i));
+            }
+            report("insert out of order", bufferNanos, listNanos);
+        }
+    }
+
+    @Test
+    public void lookupById() {
+        List<Message> messages = createMessages();
+        ConversationBuffer buffer = new ConversationBuffer();
+        buffer.upsertAll(messages);
+        Random random = new Random(42);
+        String[] ids = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ids[i] = "m" + random.nextInt(MESSAGES);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (String id : ids) {
+                sum += buffer.indexOfId(id);
+            }
+            long bufferNanos = System.nanoTime() - start;
+
+            long scanSum = 0;
+            start = System.nanoTime();
+            for (String id : ids) {
+                scanSum += scanIndexOf(messages, id);
+            }
+            long listNanos = System.nanoTime() - start;
+
+            assertEquals(scanSum, sum);
+            report("lookup " + LOOKUPS + " ids", bufferNanos, listNanos);
+        }
+    }
+
+    @Test
+    public void evictOldest() {
+        List<Message> messages = createMessages();
+        for (int round = 0; round < ROUNDS; round++) {
+            ConversationBuffer buffer = new ConversationBuffer();
+            buffer.upsertAll(messages);
+            long start = System.nanoTime();
+            buffer.evictOldest(MESSAGES / 2);
+            long bufferNanos = System.nanoTime() - start;
+
+            // One bulk shift, the cheapest way a plain list drops its head
+            List<Message> list = new ArrayList<>(messages);
+            start = System.nanoTime();
+            list.subList(0, MESSAGES / 2).clear();
+            long listNanos = System.nanoTime() - start;
+
+            assertEquals(list.size(), buffer.size());
+            report("evict oldest half", bufferNanos, listNanos);
+        }
+    }
+
+    // What ChatActivity.indexOfMessage did before the buffer
+    private static int scanIndexOf(List<Message> messages, String messageId) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).getMessageId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String name, long bufferNanos, long listNanos) {
+        System.out.printf("%-22s buffer %8.2f ms   list %8.2f ms%n",
+                name, bufferNanos / 1e6, listNanos / 1e6);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.finalchatapp.data;
+
+import com.example.finalchatapp.models.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ConversationBufferTest {
+
+    private ConversationBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new ConversationBuffer();
+    }
+
+    private static Message message(String id, long timestamp) {
+        Message message = new Message(id, "sender", "receiver", "text " + id);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    private void assertOrder(String... ids) {
+        assertEquals(ids.length, buffer.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], buffer.get(i).getMessageId());
+            assertEquals(i, buffer.indexOfId(ids[i]));
+        }
+    }
+
+    @Test
+    public void upsert_keepsTimestampOrder() {
+        buffer.upsert(message("b", 20));
+        buffer.upsert(message("d", 40));
+        buffer.upsert(message("a", 10));
+        buffer.upsert(message("c", 30));
+
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void upsert_breaksTimestampTiesById() {
+        buffer.upsert(message("y", 10));
+        buffer.upsert(message("x", 10));
+
+        assertOrder("x", "y");
+    }
+
+    @Test
+    public void upsert_replacesMessageWithSameId() {
+        buffer.upsert(message("a", 10));
+        buffer.upsert(message("b", 20));
+
+        Message edited = message("a", 10);
+        edited.setContent("edited");
+        assertEquals(0, buffer.upsert(edited));
+
+        assertOrder("a", "b");
+        assertSame(edited, buffer.getById("a"));
+    }
+
+    @Test
+    public void upsert_movesMessageWhenTimestampChanges() {
+        buffer.upsert(message("a", 10));
+        buffer.upsert(message("b", 20));
+        buffer.upsert(message("c", 30));
+
+        assertEquals(2, buffer.upsert(message("a", 40)));
+
+        assertOrder("b", "c", "a");
+    }
+
+    @Test
+    public void upsertAll_prependsOlderPage() {
+        buffer.upsert(message("c", 30));
+        buffer.upsert(message("d", 40));
+
+        buffer.upsertAll(Arrays.asList(message("b", 20), message("a", 10)));
+
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void upsertAll_mergesOverlappingPage() {
+        buffer.upsert(message("b", 20));
+        buffer.upsert(message("d", 40));
+
+        buffer.upsertAll(Arrays.asList(message("a", 10), message("b", 20), message("c", 30)));
+
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void upsertAll_deduplicatesWithinBatch() {
+        buffer.upsertAll(Arrays.asList(message("a", 10), message("a", 10), message("b", 20)));
+
+        assertOrder("a", "b");
+    }
+
+    @Test
+    public void removeById_dropsMessageAndIndex() {
+        buffer.upsert(message("a", 10));
+        buffer.upsert(message("b", 20));
+
+        assertNotNull(buffer.removeById("a"));
+        assertNull(buffer.removeById("a"));
+
+        assertOrder("b");
+        assertFalse(buffer.containsId("a"));
+        assertEquals(-1, buffer.indexOfId("a"));
+    }
+
+    @Test
+    public void evictOldest_dropsOldestRange() {
+        for (int i = 0; i < 5; i++) {
+            buffer.upsert(message("m" + i, i));
+        }
+
+        assertEquals(3, buffer.evictOldest(3));
+
+        assertOrder("m3", "m4");
+        assertFalse(buffer.containsId("m0"));
+        assertEquals(2, buffer.evictOldest(10));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listMutators_areUnsupported() {
+        buffer.add(message("a", 10));
+    }
+}